@@ -18,13 +18,13 @@ import android.widget.Spinner;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import edu.gatech.buzzshelter.R;
+import edu.gatech.buzzshelter.model.control.NameSearch;
+import edu.gatech.buzzshelter.model.control.ShelterQuery;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
 import edu.gatech.buzzshelter.model.facade.DataServiceFacade;
-import edu.gatech.buzzshelter.model.db.util.Toolkit;
 import edu.gatech.buzzshelter.model.facade.DataFacade;
 import edu.gatech.buzzshelter.model.data.Shelter;
 
@@ -36,38 +36,28 @@ public class ListActivity extends AppCompatActivity
     private List<Shelter> shelterList = new ArrayList<>();
     private ProgressDialog progress;
 
-    private Set<Shelter> ageSet(Set<Shelter> def, Spinner ageSpinner)
-    {
-        /* Default set */
-        String age = ageSpinner.getSelectedItem().toString();
-
-        if(age.equals("Any"))
-            return def;
-
-        return manager.matchAge(age);
-    }
-
-    private Set<Shelter> genderSet(Set<Shelter> def, Spinner gSpinner)
-    {
-        /* Default set */
-        String gender = gSpinner.getSelectedItem().toString();
+    private EditText nameBar;
+    private Spinner gSpinner, ageSpinner;
+    private RecyclerView recyclerView;
 
-        if(gender.equals("Any"))
-            return def;
+    /* Narrows the previous results as the user types */
+    private NameSearch search;
 
-        return manager.matchGender(gender);
-    }
-
-    private Set<Shelter> nameSet(Set<Shelter> def, EditText nameBar)
+    /* Keeps the list current as shelters change */
+    private DatabaseListener<Shelter> listener = new DatabaseListener<Shelter>()
     {
-        String name = nameBar.getText().toString().toLowerCase();
-
-        /* Default set */
-        if(name.equals(""))
-            return def;
+        @Override
+        public void onPut(String key, Shelter value)
+        {
+            runOnUiThread(ListActivity.this::refresh);
+        }
 
-        return manager.matchName(name);
-    }
+        @Override
+        public void onRemove(String key)
+        {
+            runOnUiThread(ListActivity.this::refresh);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -78,7 +68,7 @@ public class ListActivity extends AppCompatActivity
         manager.setup();
 
         /* Do we need to wait on data? */
-        if(manager.getShelters().isEmpty())
+        if(!manager.whenLoaded().isDone())
         {
             progress = new ProgressDialog(this);
 
@@ -86,14 +76,41 @@ public class ListActivity extends AppCompatActivity
             progress.setMessage("Please wait...");
             progress.setCancelable(false);
             progress.show();
-
-            Thread thread = new Thread(this::waitOnLoad);
-            thread.start();
-        }
-        else
-        {
-            doSetup();
         }
+
+        /* Runs at once if already loaded (on failure, show what we have) */
+        manager.whenLoaded().whenComplete((v, e) -> runOnUiThread(this::doSetup));
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        manager.removeShelterListener(listener);
+
+        if(search != null)
+            search.close();
+
+        super.onDestroy();
+    }
+
+    /* Re-run the current filters */
+    private void refresh()
+    {
+        /* Not set up yet */
+        if(recyclerView == null)
+            return;
+
+        ShelterQuery query = new ShelterQuery()
+                .name(nameBar.getText().toString())
+                .gender(gSpinner.getSelectedItem().toString())
+                .age(ageSpinner.getSelectedItem().toString());
+
+        /* Filters the cached name results, in one pass */
+        List<Shelter> all = search.find(query);
+
+        shelterList.clear();
+        shelterList.addAll(all);
+        recyclerView.getAdapter().notifyDataSetChanged();
     }
 
     public void doSetup()
@@ -101,17 +118,25 @@ public class ListActivity extends AppCompatActivity
         if(progress != null)
             progress.dismiss();
 
+        /* Left before the data came in */
+        if(isDestroyed())
+            return;
+
         shelterList = manager.getShelters();
 
-        EditText nameBar = findViewById(R.id.searchBar);
-        Spinner gSpinner = findViewById(R.id.gSpinner);
-        Spinner ageSpinner = findViewById(R.id.ageSpinner);
+        nameBar = findViewById(R.id.searchBar);
+        gSpinner = findViewById(R.id.gSpinner);
+        ageSpinner = findViewById(R.id.ageSpinner);
         Button map = findViewById(R.id.mapButton);
 
-        RecyclerView recyclerView = findViewById(R.id.shelterList);
+        search = manager.newNameSearch();
+
+        recyclerView = findViewById(R.id.shelterList);
         recyclerView.setAdapter(new SimpleRecyclerViewAdapter(shelterList));
         dataService.resetFilter();
 
+        manager.addShelterListener(listener);
+
         {
             ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
                     ListActivity.this,
@@ -127,15 +152,7 @@ public class ListActivity extends AppCompatActivity
                                            long id)
                 {
                     /* Process the current state */
-                    Set<Shelter> copy = new HashSet<>(manager.getShelters());
-                    shelterList.clear();
-
-                    /* Intersect the results */
-                    Set<Shelter> all = Toolkit.intersect(nameSet(copy, nameBar),
-                            ageSet(copy, ageSpinner), genderSet(copy, gSpinner));
-
-                    shelterList.addAll(all);
-                    recyclerView.getAdapter().notifyDataSetChanged();
+                    refresh();
 
                     // probably not the way to do this but oh well for now
                     String gender = gSpinner.getSelectedItem().toString();
@@ -163,14 +180,7 @@ public class ListActivity extends AppCompatActivity
                 public void onItemSelected(AdapterView<?> parent, View view, int position,
                                            long id)
                 {
-                    Set<Shelter> copy = new HashSet<>(manager.getShelters());
-                    shelterList.clear();
-
-                    Set<Shelter> all = Toolkit.intersect(nameSet(copy, nameBar),
-                            ageSet(copy, ageSpinner), genderSet(copy, gSpinner));
-
-                    shelterList.addAll(all);
-                    recyclerView.getAdapter().notifyDataSetChanged();
+                    refresh();
 
                     String age = ageSpinner.getSelectedItem().toString();
                     dataService.setAgeFilter(age);
@@ -198,14 +208,7 @@ public class ListActivity extends AppCompatActivity
             @Override
             public void afterTextChanged(Editable editable)
             {
-                Set<Shelter> copy = new HashSet<>(manager.getShelters());
-                shelterList.clear();
-
-                Set<Shelter> result = Toolkit.intersect(nameSet(copy, nameBar),
-                        ageSet(copy, ageSpinner), genderSet(copy, gSpinner));
-
-                shelterList.addAll(result);
-                recyclerView.getAdapter().notifyDataSetChanged();
+                refresh();
 
                 String name = nameBar.getText().toString().toLowerCase();
                 dataService.setNameFilter(name);
@@ -219,15 +222,6 @@ public class ListActivity extends AppCompatActivity
         });
     }
 
-    /* Wait until the data has come in */
-    private void waitOnLoad()
-    {
-        while (manager.getShelters().isEmpty())
-            ;
-
-        runOnUiThread(this::doSetup);
-    }
-
     @Override
     public void onBackPressed()
     {
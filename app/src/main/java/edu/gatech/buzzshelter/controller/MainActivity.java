@@ -33,7 +33,7 @@ public class MainActivity extends AppCompatActivity
         manager.setup();
 
         /* Do we need to wait on data? */
-        if(manager.getShelters().isEmpty())
+        if(!manager.whenLoaded().isDone())
         {
             progress = new ProgressDialog(this);
 
@@ -41,15 +41,11 @@ public class MainActivity extends AppCompatActivity
             progress.setMessage("Please wait...");
             progress.setCancelable(false);
             progress.show();
-
-            Thread thread = new Thread(this::waitOnLoad);
-            thread.start();
-        }
-        else
-        {
-            doSetup();
         }
 
+        /* Runs at once if already loaded */
+        manager.whenLoaded().whenComplete((v, e) -> runOnUiThread(this::doSetup));
+
         /* Logout implementation */
         logout.setOnClickListener(v -> {
             AuthUI.getInstance()
@@ -77,14 +73,6 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
-    private void waitOnLoad()
-    {
-        while (manager.getShelters().isEmpty())
-            ;
-
-        runOnUiThread(this::doSetup);
-    }
-
     private void doSetup()
     {
         if(progress != null)
@@ -113,20 +113,26 @@ public class ReserveActivity extends AppCompatActivity
             int amt = (int)amtSpinner.getSelectedItem();
 
             DataFacade facade = DataFacade.getInstance();
-            boolean result = facade.reserve(s.getName(), type, amt);
 
-            if(!result)
-            {
-                Snackbar.make(v, "Could not reserve!", Snackbar.LENGTH_SHORT)
-                        .show();
-            }
-            else
-            {
-                Intent back = new Intent(this, ShelterActivity.class);
-                back.putExtra(ShelterActivity.ARG_SHELTER_ID, id);
-
-                startActivity(back);
-            }
+            /* Wait for the server to accept it before moving on */
+            reserve.setEnabled(false);
+
+            facade.reserve(s.getName(), type, amt).thenAccept(result -> runOnUiThread(() -> {
+                reserve.setEnabled(true);
+
+                if(!result)
+                {
+                    Snackbar.make(v, "Could not reserve!", Snackbar.LENGTH_SHORT)
+                            .show();
+                }
+                else
+                {
+                    Intent back = new Intent(this, ShelterActivity.class);
+                    back.putExtra(ShelterActivity.ARG_SHELTER_ID, id);
+
+                    startActivity(back);
+                }
+            }));
         });
 
         backBtn.setOnClickListener(v -> {
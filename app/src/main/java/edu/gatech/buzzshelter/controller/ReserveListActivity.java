@@ -71,10 +71,25 @@ public class ReserveListActivity extends AppCompatActivity
             }
 
             DataFacade facade = DataFacade.getInstance();
-            facade.cancel(current.getShelter(), current.getType(), current.getAmt());
 
-            Intent intent = new Intent(this, ReserveListActivity.class);
-            startActivity(intent);
+            /* Wait for the shelter to take the beds back before moving on */
+            cancel.setEnabled(false);
+
+            facade.cancel(current.getShelter(), current.getType(), current.getAmt())
+                    .thenAccept(result -> runOnUiThread(() -> {
+                        cancel.setEnabled(true);
+
+                        if(!result)
+                        {
+                            Snackbar.make(v, "Could not cancel!", Snackbar.LENGTH_SHORT)
+                                    .show();
+                        }
+                        else
+                        {
+                            Intent intent = new Intent(this, ReserveListActivity.class);
+                            startActivity(intent);
+                        }
+                    }));
         });
 
         back.setOnClickListener(v -> {
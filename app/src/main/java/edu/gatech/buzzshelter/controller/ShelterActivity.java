@@ -14,7 +14,6 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import java.util.List;
-import java.util.Optional;
 
 import edu.gatech.buzzshelter.R;
 import edu.gatech.buzzshelter.model.data.Shelter;
@@ -33,11 +32,8 @@ public class ShelterActivity extends AppCompatActivity {
         if (id == -1)
             return null;
 
-        Optional<Shelter> result = data.getShelters()
-                .stream().filter(x -> x.getKey() == id).findFirst();
-
-        /* Fatal error (shouldn't happen) */
-        return result.orElse(null);
+        /* Fatal error (shouldn't happen), if null */
+        return data.getShelter(id);
     }
 
     private void setCapacity(Shelter s, TextView capacity)
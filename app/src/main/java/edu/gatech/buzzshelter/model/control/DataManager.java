@@ -1,13 +1,10 @@
 package edu.gatech.buzzshelter.model.control;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import edu.gatech.buzzshelter.model.data.DataElement;
 import edu.gatech.buzzshelter.model.data.Location;
-import edu.gatech.buzzshelter.model.db.util.Toolkit;
 import edu.gatech.buzzshelter.model.facade.DataFacade;
 import edu.gatech.buzzshelter.model.data.Shelter;
 
@@ -33,13 +30,8 @@ public class DataManager {
 
     public ArrayList<DataElement> getData() {
         ArrayList<DataElement> data = new ArrayList<DataElement>();
-        List<Shelter> shelterList = manager.getShelters();
-        Set<Shelter> shelterSet = new HashSet<>(shelterList);
-
-        Set<Shelter> nameSet = nameMatch(shelterSet);
-        Set<Shelter> genderSet = genderMatch(shelterSet);
-        Set<Shelter> ageSet = ageMatch(shelterSet);
-        Set<Shelter> filteredShelters = Toolkit.intersect(nameSet, genderSet, ageSet);
+        List<Shelter> filteredShelters = manager.find(new ShelterQuery()
+                .name(nameFilter).gender(genderFilter).age(ageFilter));
 
         for (Shelter shelter : filteredShelters) {
             String name = shelter.getName();
@@ -51,30 +43,6 @@ public class DataManager {
         return data;
     }
 
-    private Set<Shelter> nameMatch(Set<Shelter> shelters) {
-        if (nameFilter.equals("")) {
-            return shelters;
-        } else {
-            return manager.matchName(nameFilter);
-        }
-    }
-
-    private Set<Shelter> genderMatch(Set<Shelter> shelters) {
-        if (genderFilter.equals("Any")) {
-            return shelters;
-        } else {
-            return manager.matchGender(genderFilter);
-        }
-    }
-
-    private Set<Shelter> ageMatch(Set<Shelter> shelters) {
-        if (ageFilter.equals("Any")) {
-            return shelters;
-        } else {
-            return manager.matchAge(ageFilter);
-        }
-    }
-
     public void setNameFilter(String name){ nameFilter = name; }
 
     public void setGenderFilter(String gender) { genderFilter = gender; }
@@ -0,0 +1,135 @@
+package edu.gatech.buzzshelter.model.control;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import edu.gatech.buzzshelter.model.data.Shelter;
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+
+/**
+ * As-you-type name search session (see ShelterMgr.newNameSearch)
+ *
+ * Keeps the result for every prefix typed so far. Typing a character only
+ * filters the previous result, and deleting one steps back to a cached
+ * result, so a keystroke costs O(previous result) rather than a pass over
+ * every name. The first prefix is a range scan of the name-ordered
+ * database. Any change to the shelters drops the cache.
+ *
+ * Close the session when done, to unregister it from the database.
+ */
+public class NameSearch implements DatabaseListener<Shelter>, AutoCloseable
+{
+    private static final class Step
+    {
+        final String prefix;
+        final List<Shelter> result;
+
+        Step(String prefix, List<Shelter> result)
+        {
+            this.prefix = prefix;
+            this.result = Collections.unmodifiableList(result);
+        }
+    }
+
+    private final Database<Shelter> shelters;
+
+    /* Results so far; each prefix extends the one below it */
+    private final Deque<Step> steps = new ArrayDeque<>();
+
+    NameSearch(Database<Shelter> shelters)
+    {
+        this.shelters = shelters;
+        shelters.addListener(this);
+    }
+
+    /**
+     * Shelters whose name starts with prefix (ignoring case)
+     * @param prefix - the text typed so far
+     * @return list of matching shelters (read-only)
+     */
+    public synchronized List<Shelter> search(String prefix)
+    {
+        String name = prefix.toLowerCase();
+
+        /* Deleted characters (or started over): step back */
+        while(!steps.isEmpty() && !name.startsWith(steps.peek().prefix))
+            steps.pop();
+
+        Step last = steps.peek();
+
+        if(last != null && last.prefix.equals(name))
+            return last.result;
+
+        List<Shelter> result;
+
+        if(last == null)
+        {
+            result = new ArrayList<>(shelters.prefixScan(name));
+        }
+        else
+        {
+            /* Narrowing: only the previous matches can still match */
+            result = new ArrayList<>();
+
+            for(Shelter shelter : last.result)
+            {
+                if(shelter.matchName(name))
+                    result.add(shelter);
+            }
+        }
+
+        Step next = new Step(name, result);
+        steps.push(next);
+
+        return next.result;
+    }
+
+    /* Shelters matching query, drawn from this session's name results in one pass */
+    public List<Shelter> find(ShelterQuery query)
+    {
+        String name = query.getName();
+        List<Shelter> result = new ArrayList<>();
+
+        for(Shelter shelter : search(name == null ? "" : name))
+        {
+            if(query.matches(shelter))
+                result.add(shelter);
+        }
+
+        return result;
+    }
+
+    private synchronized void invalidate()
+    {
+        steps.clear();
+    }
+
+    @Override
+    public void onLoaded()
+    {
+        invalidate();
+    }
+
+    @Override
+    public void onPut(String key, Shelter value)
+    {
+        invalidate();
+    }
+
+    @Override
+    public void onRemove(String key)
+    {
+        invalidate();
+    }
+
+    @Override
+    public void close()
+    {
+        shelters.removeListener(this);
+        invalidate();
+    }
+}
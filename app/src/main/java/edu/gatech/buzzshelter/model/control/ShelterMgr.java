@@ -1,18 +1,36 @@
 package edu.gatech.buzzshelter.model.control;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+import edu.gatech.buzzshelter.model.db.Snapshot;
 import edu.gatech.buzzshelter.model.db.types.FirebaseDB;
+import edu.gatech.buzzshelter.model.db.types.OrderedDB;
+import edu.gatech.buzzshelter.model.db.util.BitmapIndex;
+import edu.gatech.buzzshelter.model.db.util.TrigramIndex;
 import edu.gatech.buzzshelter.model.data.Shelter;
 
 public class ShelterMgr
 {
     private Database<Shelter> shelters;
 
+    /* Restriction (gender, age) -> shelters */
+    private BitmapIndex<Shelter> restrictions = new BitmapIndex<>(Shelter::restrictions);
+
+    /* Words of name, address and notes -> shelters */
+    private TrigramIndex<Shelter> fullText = new TrigramIndex<>(ShelterMgr::text);
+
     /* Load shelter information  */
     public void setup()
     {
@@ -20,7 +38,29 @@ public class ShelterMgr
         if(shelters != null)
             return;
 
-        shelters = new FirebaseDB<>("shelters", Shelter.class);
+        /* Ordered, so name searches are prefix scans */
+        shelters = new FirebaseDB<>("shelters", Shelter.class, true, new OrderedDB<>());
+
+        /* Not unique, so a bad remote record can't be dropped on sync */
+        shelters.addIndex("id", Shelter::getKey, false);
+
+        /* Data arrives on this thread later, so nothing is missed */
+        shelters.addListener(restrictions);
+        shelters.addListener(fullText);
+    }
+
+    /* Searchable text of a shelter (fields may be missing) */
+    private static String text(Shelter shelter)
+    {
+        StringBuilder text = new StringBuilder();
+
+        for(String field : new String[] {shelter.getName(), shelter.getAddress(), shelter.getNotes()})
+        {
+            if(field != null)
+                text.append(field).append(' ');
+        }
+
+        return text.toString();
     }
 
     public Shelter get(String key)
@@ -28,37 +68,184 @@ public class ShelterMgr
         return shelters.get(key);
     }
 
-    public boolean reserve(String name, String type, int amt)
+    /* Completes with true once the server has taken the reservation */
+    public CompletableFuture<Boolean> reserve(String name, String type, int amt)
     {
-        boolean result = shelters.get(name).reserve(type, amt);
-        return result && put(name, shelters.get(name));
+        return update(name, x -> x.reserve(type, amt));
     }
 
-    public boolean cancel(String name, String type, int amt)
+    /* Completes with true once the server has released the reservation */
+    public CompletableFuture<Boolean> cancel(String name, String type, int amt)
     {
-        boolean result = shelters.get(name).cancel(type, amt);
-        return result && put(name, shelters.get(name));
+        return update(name, x -> x.cancel(type, amt));
     }
 
-    /* Add {key, value} to the database */
-    private boolean put(String key, Shelter value)
+    /*
+     * Atomically apply change to a copy of the shelter (stored shelters
+     * may be shared with snapshots), without a lock: on contention the
+     * change is simply re-run against the newer value. Completes with
+     * whether change succeeded on the value the server committed.
+     */
+    private CompletableFuture<Boolean> update(String name, Predicate<Shelter> change)
     {
-        return shelters.put(key, value);
+        /* Copies change succeeded on (fn may run more than once, or remotely) */
+        Set<Shelter> changed = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        CompletableFuture<Shelter> result = shelters.computeAsync(name, current -> {
+            if(current == null)
+                return null;
+
+            Shelter copy = new Shelter(current);
+
+            if(!change.test(copy))
+                return current;
+
+            changed.add(copy);
+            return copy;
+        });
+
+        /* A failed transaction changed nothing */
+        return result.handle((shelter, error) ->
+                error == null && shelter != null && changed.contains(shelter));
     }
 
     public Set<Shelter> matchName(String name)
     {
-        return matcher(x -> x.matchName(name));
+        return new HashSet<>(find(new ShelterQuery().name(name)));
     }
 
     public Set<Shelter> matchGender(String gender)
     {
-        return matcher(x -> x.matchGender(gender));
+        return new HashSet<>(find(new ShelterQuery().gender(gender)));
     }
 
     public Set<Shelter> matchAge(String age)
     {
-        return matcher(x -> x.matchAge(age));
+        return new HashSet<>(find(new ShelterQuery().age(age)));
+    }
+
+    /**
+     * Find the shelters matching every criterion of query, all read from
+     * one snapshot (so concurrent updates can't mix versions in the result)
+     *
+     * Candidates come from the most selective access path (a name prefix
+     * scan, or the restriction bitmaps), and the rest of the criteria are
+     * checked in the same pass over them. The bitmaps are live, so if they
+     * changed after the snapshot was taken, the snapshot is scanned instead.
+     * (A write whose listeners are still running when find starts may be
+     * left out, as though find had run just before it.)
+     *
+     * @param query - criteria to match
+     * @return list of matching shelters
+     */
+    public List<Shelter> find(ShelterQuery query)
+    {
+        long version = restrictions.getVersion();
+
+        try(Snapshot<Shelter> view = shelters.snapshot())
+        {
+            List<Shelter> result = new ArrayList<>();
+
+            /* Every criterion is re-checked, whatever the plan */
+            for(Shelter shelter : plan(view, query, version))
+            {
+                if(query.matches(shelter))
+                    result.add(shelter);
+            }
+
+            return result;
+        }
+    }
+
+    /*
+     * Pick the access path with the fewest candidates for query; version
+     * is the bitmaps' version from before view was taken
+     */
+    private Iterable<Shelter> plan(Snapshot<Shelter> view, ShelterQuery query, long version)
+    {
+        String name = query.getName();
+        List<String> wanted = query.getRestrictions();
+
+        if(wanted.isEmpty())
+            return name == null ? view.stream()::iterator : view.prefixScan(name);
+
+        /* Word-wise AND of the restriction bitsets; its size is exact */
+        BitSet bits = restrictions.findAll(wanted.toArray());
+
+        if(name != null)
+        {
+            Collection<Shelter> named = view.prefixScan(name);
+
+            if(!exceeds(named, bits.cardinality()))
+                return named;
+        }
+
+        List<String> keys = restrictions.keys(bits);
+
+        /* Newer than view: shelters matching in view may be missing from keys */
+        if(restrictions.getVersion() != version)
+            return view.stream()::iterator;
+
+        return resolve(view, keys);
+    }
+
+    /* Does items have more than limit elements? (only walks limit + 1) */
+    private static boolean exceeds(Collection<Shelter> items, int limit)
+    {
+        Iterator<Shelter> it = items.iterator();
+
+        for(int i = 0; i < limit; i++, it.next())
+        {
+            if(!it.hasNext())
+                return false;
+        }
+
+        return it.hasNext();
+    }
+
+    /* The shelters in db under keys (skipping missing ones) */
+    private static List<Shelter> resolve(Database<Shelter> db, List<String> keys)
+    {
+        List<Shelter> result = new ArrayList<>(keys.size());
+
+        for(String key : keys)
+        {
+            Shelter shelter = db.get(key);
+
+            if(shelter != null)
+                result.add(shelter);
+        }
+
+        return result;
+    }
+
+    /**
+     * Full-text search over name, address and notes (tolerates typos)
+     * @param text - words to search for
+     * @param limit - maximum number of shelters to return
+     * @return list of matching shelters, best match first
+     */
+    public List<Shelter> search(String text, int limit)
+    {
+        List<Shelter> result = new ArrayList<>();
+
+        for(String key : fullText.search(text, limit))
+        {
+            Shelter shelter = shelters.get(key);
+
+            if(shelter != null)
+                result.add(shelter);
+        }
+
+        return result;
+    }
+
+    /* Find a shelter by its unique (numeric) key */
+    public Shelter get(int key)
+    {
+        List<Shelter> result = shelters.lookup("id", key);
+        return result.isEmpty() ? null : result.get(0);
     }
 
     public List<Shelter> getShelters()
@@ -66,10 +253,24 @@ public class ShelterMgr
         return shelters.values();
     }
 
-    /* Generic matching helper */
-    private Set<Shelter> matcher(Predicate<Shelter> pred)
+    /* Start an as-you-type name search (close it when done) */
+    public NameSearch newNameSearch()
+    {
+        return new NameSearch(shelters);
+    }
+
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return shelters.whenLoaded();
+    }
+
+    public void addListener(DatabaseListener<Shelter> listener)
+    {
+        shelters.addListener(listener);
+    }
+
+    public void removeListener(DatabaseListener<Shelter> listener)
     {
-        return shelters.values().stream()
-                .filter(pred).collect(Collectors.toSet());
+        shelters.removeListener(listener);
     }
 }
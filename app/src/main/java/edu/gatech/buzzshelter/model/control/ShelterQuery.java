@@ -0,0 +1,137 @@
+package edu.gatech.buzzshelter.model.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.gatech.buzzshelter.model.data.Shelter;
+
+/**
+ * Criteria for finding shelters (see ShelterMgr.find)
+ *
+ * Every criterion is optional, and a shelter must match all of the ones
+ * which are set. For the search screens' sake, null, "" and "Any" all
+ * mean "don't filter" for the string criteria.
+ */
+public class ShelterQuery
+{
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private String name;
+    private String gender, age;
+
+    private int minAvailable = -1;
+
+    private boolean located;
+    private double latitude, longitude, radius;
+
+    private static boolean isAny(String value)
+    {
+        return value == null || value.isEmpty() || value.equals("Any");
+    }
+
+    /* Name starts with prefix (ignoring case) */
+    public ShelterQuery name(String prefix)
+    {
+        name = isAny(prefix) ? null : prefix.toLowerCase();
+        return this;
+    }
+
+    /* Gender restriction (e.g. "Women") */
+    public ShelterQuery gender(String gender)
+    {
+        this.gender = isAny(gender) ? null : gender;
+        return this;
+    }
+
+    /* Age restriction (e.g. "Young Adults") */
+    public ShelterQuery age(String age)
+    {
+        this.age = isAny(age) ? null : age;
+        return this;
+    }
+
+    /* At least amt spaces available, in some category (unknown capacities never match) */
+    public ShelterQuery minAvailable(int amt)
+    {
+        minAvailable = amt;
+        return this;
+    }
+
+    /* Within radius km of (latitude, longitude) */
+    public ShelterQuery near(double latitude, double longitude, double radius)
+    {
+        this.located = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+
+        return this;
+    }
+
+    /* Name prefix (lower case), or null */
+    public String getName()
+    {
+        return name;
+    }
+
+    /* Normalized restrictions a shelter must have (see Shelter.restrictions) */
+    public List<String> getRestrictions()
+    {
+        if(gender == null && age == null)
+            return Collections.emptyList();
+
+        List<String> result = new ArrayList<>(2);
+
+        if(gender != null)
+            result.add(Shelter.restriction(gender));
+
+        if(age != null)
+            result.add(Shelter.restriction(age));
+
+        return result;
+    }
+
+    /* Does shelter meet every criterion? */
+    public boolean matches(Shelter shelter)
+    {
+        if(name != null && !shelter.matchName(name))
+            return false;
+
+        if(gender != null && !shelter.matchGender(gender))
+            return false;
+
+        if(age != null && !shelter.matchAge(age))
+            return false;
+
+        if(minAvailable >= 0 && !hasAvailable(shelter))
+            return false;
+
+        return !located || distance(shelter) <= radius;
+    }
+
+    private boolean hasAvailable(Shelter shelter)
+    {
+        for(Shelter.Capacity item : shelter.getCapacity())
+        {
+            if(item.getCapacity() != -1 && item.getAvailable() >= minAvailable)
+                return true;
+        }
+
+        return false;
+    }
+
+    /* Great-circle (haversine) distance in km */
+    private double distance(Shelter shelter)
+    {
+        double dLat = Math.toRadians(shelter.getLatitude() - latitude);
+        double dLon = Math.toRadians(shelter.getLongitude() - longitude);
+
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(latitude))
+                * Math.cos(Math.toRadians(shelter.getLatitude()))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+}
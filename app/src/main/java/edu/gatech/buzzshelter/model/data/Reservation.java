@@ -2,12 +2,55 @@ package edu.gatech.buzzshelter.model.data;
 
 import java.io.Serializable;
 
+import edu.gatech.buzzshelter.model.db.BinaryCodec;
+import edu.gatech.buzzshelter.model.db.util.BinaryReader;
+import edu.gatech.buzzshelter.model.db.util.BinaryWriter;
+
 public class Reservation implements Serializable
 {
     private String shelter;
     private String type;
     private int amt;
 
+    /* Binary codec for the Reservation (field numbers must never be reused) */
+    private static BinaryCodec<Reservation> codec = new BinaryCodec<Reservation>()
+    {
+        private static final int SHELTER = 1, TYPE = 2, AMT = 3;
+
+        @Override
+        public int getVersion()
+        {
+            return 1;
+        }
+
+        @Override
+        public void write(Reservation src, BinaryWriter out)
+        {
+            out.string(SHELTER, src.shelter)
+                    .string(TYPE, src.type)
+                    .sint(AMT, src.amt);
+        }
+
+        @Override
+        public Reservation read(BinaryReader in)
+        {
+            Reservation reservation = new Reservation();
+
+            while(in.next())
+            {
+                switch(in.getField())
+                {
+                    case SHELTER: reservation.shelter = in.readString(); break;
+                    case TYPE: reservation.type = in.readString(); break;
+                    case AMT: reservation.amt = (int)in.readSInt(); break;
+                    default: in.skip(); break;
+                }
+            }
+
+            return reservation;
+        }
+    };
+
     public Reservation() {}
 
     public Reservation(String shelter, String type, int amt)
@@ -17,6 +60,11 @@ public class Reservation implements Serializable
         this.amt = amt;
     }
 
+    public static BinaryCodec<Reservation> getCodec()
+    {
+        return codec;
+    }
+
     public String getShelter()
     {
         return shelter;
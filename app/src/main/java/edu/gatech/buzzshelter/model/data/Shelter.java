@@ -5,7 +5,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import edu.gatech.buzzshelter.model.db.BinaryCodec;
 import edu.gatech.buzzshelter.model.db.Encoder;
+import edu.gatech.buzzshelter.model.db.FieldCursor;
+import edu.gatech.buzzshelter.model.db.FieldEncoder;
+import edu.gatech.buzzshelter.model.db.util.BinaryReader;
+import edu.gatech.buzzshelter.model.db.util.BinaryWriter;
 
 public class Shelter implements Serializable
 {
@@ -18,6 +23,9 @@ public class Shelter implements Serializable
     private double latitude, longitude;
     private String address, notes, phone;
 
+    /* Normalized restriction tokens (parsed on first use; see restrictions) */
+    private transient List<String> restrictions;
+
     /* Capacity information */
     public static class Capacity implements Serializable
     {
@@ -38,6 +46,13 @@ public class Shelter implements Serializable
             this.available = capacity;
         }
 
+        public Capacity(Capacity other)
+        {
+            this.category = other.category;
+            this.capacity = other.capacity;
+            this.available = other.available;
+        }
+
         public String getCategory()
         {
             return category;
@@ -75,7 +90,9 @@ public class Shelter implements Serializable
     }
 
     /* Encoder for the Shelter */
-    private static Encoder<Shelter> encoder = new Encoder<Shelter>()
+    private static Encoder<Shelter> encoder = new ShelterEncoder();
+
+    private static class ShelterEncoder implements Encoder<Shelter>, FieldEncoder<Shelter>
     {
         @Override
         public String[] decode(Shelter src)
@@ -84,7 +101,7 @@ public class Shelter implements Serializable
 
             raw[0] = Integer.toString(src.getKey());
             raw[1] = src.getName();
-            raw[2] = src.getCapacity().toString(); //FIXME: This doesn't work (obviously)
+            raw[2] = encodeCapacity(src.getCapacity());
             raw[3] = src.getRestrict();
             raw[4] = Double.toString(src.getLongitude());
             raw[5] = Double.toString(src.getLatitude());
@@ -156,7 +173,165 @@ public class Shelter implements Serializable
         {
             return src.getName();
         }
-    };
+
+        /* Inverse of the capacity parsing in encode() */
+        private String encodeCapacity(List<Capacity> capacity)
+        {
+            StringBuilder line = new StringBuilder();
+
+            for(Capacity item : capacity)
+            {
+                /* Default configuration */
+                if(item.getCapacity() == -1)
+                    continue;
+
+                if(line.length() > 0)
+                    line.append(',');
+
+                line.append(item.getCapacity()).append(' ').append(item.getCategory());
+            }
+
+            return line.toString();
+        }
+
+        /* Same as encode(String[]), but parses numbers in place */
+        @Override
+        public Shelter encode(FieldCursor raw)
+        {
+            int key = raw.getInt(0);
+            String name = raw.getString(1);
+
+            List<Capacity> capacity = new ArrayList<>();
+
+            if(raw.isEmpty(2))
+            {
+                /* Default configuration */
+                capacity.add(new Capacity("Beds", -1));
+            }
+            else
+            {
+                int length = raw.length(2), start = 0;
+
+                /* Walk each comma-separated entry */
+                while(start < length)
+                {
+                    int end = start, pos = start;
+
+                    while(end < length && raw.charAt(2, end) != ',')
+                        end++;
+
+                    /* Find how long the capacity it is */
+                    while(pos < end && Character.isDigit(raw.charAt(2, pos)))
+                        pos++;
+
+                    int actual = raw.getInt(2, start, pos);
+                    String type = pos == end ? "Beds" : raw.getString(2, pos + 1, end);
+
+                    capacity.add(new Capacity(type, actual));
+                    start = end + 1;
+                }
+            }
+
+            String restrict = raw.getString(3);
+            double longitude = raw.getDouble(4);
+            double latitude = raw.getDouble(5);
+            String address = raw.getString(6);
+            String notes = raw.getString(7);
+            String phone = raw.getString(8);
+
+            return new Shelter(key, name, capacity, restrict,
+                    longitude, latitude, address, notes, phone);
+        }
+    }
+
+    /* Binary codec for the Shelter (field numbers must never be reused) */
+    private static BinaryCodec<Shelter> codec = new ShelterCodec();
+
+    private static class ShelterCodec implements BinaryCodec<Shelter>
+    {
+        private static final int KEY = 1, NAME = 2, CAPACITY = 3, RESTRICT = 4,
+                LATITUDE = 5, LONGITUDE = 6, ADDRESS = 7, NOTES = 8, PHONE = 9;
+
+        /* Capacity fields */
+        private static final int CATEGORY = 1, TOTAL = 2, AVAILABLE = 3;
+
+        @Override
+        public int getVersion()
+        {
+            return 1;
+        }
+
+        @Override
+        public void write(Shelter src, BinaryWriter out)
+        {
+            out.sint(KEY, src.key)
+                    .string(NAME, src.name)
+                    .string(RESTRICT, src.restrict)
+                    .fixed64(LATITUDE, src.latitude)
+                    .fixed64(LONGITUDE, src.longitude)
+                    .string(ADDRESS, src.address)
+                    .string(NOTES, src.notes)
+                    .string(PHONE, src.phone);
+
+            if(src.capacity == null)
+                return;
+
+            BinaryWriter nested = new BinaryWriter();
+
+            for(Capacity item : src.capacity)
+            {
+                nested.clear();
+                nested.string(CATEGORY, item.category)
+                        .sint(TOTAL, item.capacity)
+                        .sint(AVAILABLE, item.available);
+
+                out.bytes(CAPACITY, nested);
+            }
+        }
+
+        @Override
+        public Shelter read(BinaryReader in)
+        {
+            Shelter shelter = new Shelter();
+
+            while(in.next())
+            {
+                switch(in.getField())
+                {
+                    case KEY: shelter.key = (int)in.readSInt(); break;
+                    case NAME: shelter.name = in.readString(); break;
+                    case CAPACITY: shelter.capacity.add(readCapacity(in.readNested())); break;
+                    case RESTRICT: shelter.restrict = in.readString(); break;
+                    case LATITUDE: shelter.latitude = in.readDouble(); break;
+                    case LONGITUDE: shelter.longitude = in.readDouble(); break;
+                    case ADDRESS: shelter.address = in.readString(); break;
+                    case NOTES: shelter.notes = in.readString(); break;
+                    case PHONE: shelter.phone = in.readString(); break;
+                    default: in.skip(); break;
+                }
+            }
+
+            return shelter;
+        }
+
+        private Capacity readCapacity(BinaryReader in)
+        {
+            Capacity item = new Capacity();
+
+            while(in.next())
+            {
+                switch(in.getField())
+                {
+                    case CATEGORY: item.category = in.readString(); break;
+                    case TOTAL: item.capacity = (int)in.readSInt(); break;
+                    case AVAILABLE: item.available = (int)in.readSInt(); break;
+                    default: in.skip(); break;
+                }
+            }
+
+            return item;
+        }
+    }
 
     public Shelter() {
         this.capacity = new ArrayList<>();
@@ -177,11 +352,26 @@ public class Shelter implements Serializable
         this.phone = phone;
     }
 
+    /* Copy (with its own capacities), to change without touching the original */
+    public Shelter(Shelter other)
+    {
+        this(other.key, other.name, new ArrayList<>(), other.restrict,
+                other.longitude, other.latitude, other.address, other.notes, other.phone);
+
+        for(Capacity item : other.capacity)
+            capacity.add(new Capacity(item));
+    }
+
     public static Encoder<Shelter> getEncoder()
     {
         return encoder;
     }
 
+    public static BinaryCodec<Shelter> getCodec()
+    {
+        return codec;
+    }
+
     public boolean reserve(String type, int amt)
     {
         Shelter.Capacity match = capacity.stream()
@@ -211,28 +401,42 @@ public class Shelter implements Serializable
 
     public boolean matchGender(String gender)
     {
-        String[] all = restrict.split("/");
+        return restrictions().contains(restriction(gender));
+    }
 
-        for(String item : all)
-        {
-            if(item.toLowerCase().equals(gender.toLowerCase()))
-                return true;
-        }
+    public boolean matchAge(String age)
+    {
+        return restrictions().contains(restriction(age));
+    }
 
-        return false;
+    /* Normalize a restriction, as it appears in restrictions() */
+    public static String restriction(String name)
+    {
+        return name.trim().toLowerCase();
     }
 
-    public boolean matchAge(String age)
+    /*
+     * The '/'-separated restrictions, normalized. Parsed once per object
+     * (not a getter, so Firebase doesn't store it)
+     */
+    public List<String> restrictions()
     {
-        String[] all = restrict.split("/");
+        List<String> result = restrictions;
 
-        for(String item : all)
+        if(result == null)
         {
-            if(item.toLowerCase().equals(age.toLowerCase()))
-                return true;
+            result = new ArrayList<>();
+
+            if(restrict != null)
+            {
+                for(String item : restrict.split("/"))
+                    result.add(restriction(item));
+            }
+
+            restrictions = result;
         }
 
-        return false;
+        return result;
     }
 
 
@@ -0,0 +1,45 @@
+package edu.gatech.buzzshelter.model.db;
+
+import edu.gatech.buzzshelter.model.db.util.BinaryReader;
+import edu.gatech.buzzshelter.model.db.util.BinaryWriter;
+
+/**
+ * Hand-written binary serialization for a model type
+ *
+ * Records are {format version, tagged fields...} (see BinaryWriter).
+ * New fields just take new field numbers and are skipped by older
+ * readers; the version is only bumped for changes old readers cannot
+ * skip over, and such records are rejected rather than misread.
+ */
+public interface BinaryCodec<V>
+{
+    /* Format version written by toBytes */
+    int getVersion();
+
+    /* Write the fields of src */
+    void write(V src, BinaryWriter out);
+
+    /* Read an object back from its fields (skipping unknown ones) */
+    V read(BinaryReader in);
+
+    default byte[] toBytes(V src)
+    {
+        BinaryWriter out = new BinaryWriter();
+
+        out.rawVarint(getVersion());
+        write(src, out);
+
+        return out.toByteArray();
+    }
+
+    default V fromBytes(byte[] raw)
+    {
+        BinaryReader in = new BinaryReader(raw);
+        long version = in.rawVarint();
+
+        if(version > getVersion())
+            throw new IllegalArgumentException("Unsupported format version " + version);
+
+        return read(in);
+    }
+}
@@ -2,11 +2,33 @@ package edu.gatech.buzzshelter.model.db;
 
 /* Database connector */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public abstract class Database<V>
 {
+    /* Secondary indexes, by name */
+    private final Map<String, Index<V>> indexes = new ConcurrentHashMap<>();
+
+    /* Change listeners (rarely changed, often iterated) */
+    private final List<DatabaseListener<V>> listeners = new CopyOnWriteArrayList<>();
+
     /**
      * Put (key, value) into the database
      * @param key - key to insert
@@ -54,4 +76,471 @@ public abstract class Database<V>
      * @return list of values
      */
     public abstract List<V> values();
+
+    /**
+     * Run action on every (key, value) in the db, without copying
+     * @param action - action to run
+     */
+    public void forEach(BiConsumer<String, V> action)
+    {
+        for(KVPair<String, V> item : items())
+            action.accept(item.getKey(), item.getValue());
+    }
+
+    /**
+     * Stream the values in the db (weakly consistent, where supported)
+     * @return stream of values
+     */
+    public Stream<V> stream()
+    {
+        return values().stream();
+    }
+
+    /**
+     * Find values matching pred, stopping after limit matches
+     * @param pred - predicate to match against
+     * @param limit - maximum number of matches
+     * @return list of matching values
+     */
+    public List<V> scan(Predicate<V> pred, int limit)
+    {
+        List<V> result = new ArrayList<>();
+        Iterator<V> it = stream().iterator();
+
+        while(result.size() < limit && it.hasNext())
+        {
+            V value = it.next();
+
+            if(pred.test(value))
+                result.add(value);
+        }
+
+        return result;
+    }
+
+    /**
+     * Declare a secondary index, which is kept up to date on put/remove.
+     * Databases which wrap another one forward this to the inner store.
+     * @param name - name of the index
+     * @param extractor - extracts the secondary key (null: not indexed)
+     * @param unique - reject puts which would duplicate a secondary key
+     */
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        Index<V> index = new Index<>(extractor, unique);
+
+        /* Publish first, so writes made while filling it aren't missed */
+        indexes.put(name, index);
+        backfill((key, value) -> index.update(key, null, value));
+    }
+
+    /**
+     * Feed every entry to action, to fill a new index. Stores with
+     * concurrent writers must run it atomically with writes to the same
+     * key, so that a stale value can't land after a newer one.
+     * @param action - called with each key and its current value
+     */
+    protected void backfill(BiConsumer<String, V> action)
+    {
+        forEach(action);
+    }
+
+    /**
+     * Find all values whose secondary key (in index) is value
+     * @param index - name of the index
+     * @param value - secondary key to search against
+     * @return list of matching values
+     */
+    public List<V> lookup(String index, Object value)
+    {
+        Index<V> idx = index(index);
+        List<V> result = new ArrayList<>();
+
+        for(String key : idx.find(value))
+        {
+            V current = get(key);
+
+            if(current != null)
+                result.add(current);
+        }
+
+        return result;
+    }
+
+    /* The index called name (which must exist) */
+    Index<V> index(String name)
+    {
+        Index<V> idx = indexes.get(name);
+
+        if(idx == null)
+            throw new IllegalArgumentException("No such index: " + name);
+
+        return idx;
+    }
+
+    /* Does putting (key, value) satisfy the unique indexes? */
+    protected boolean admits(String key, V value)
+    {
+        for(Index<V> index : indexes.values())
+        {
+            if(index.conflicts(key, value))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Claim value's unique secondary keys for key, atomically with respect
+     * to writes of other keys (unlike admits). The caller must serialize
+     * writes to key, and make the write whenever this returns true.
+     * @param key - key being written
+     * @param old - its current value (may be null)
+     * @param value - value being written
+     * @return false (holding no claims), if another key has one of them
+     */
+    protected boolean reserveUnique(String key, V old, V value)
+    {
+        List<Index<V>> claimed = new ArrayList<>();
+
+        for(Index<V> index : indexes.values())
+        {
+            if(!index.reserve(key, value))
+            {
+                for(Index<V> done : claimed)
+                    done.release(key, old, value);
+
+                return false;
+            }
+
+            claimed.add(index);
+        }
+
+        return true;
+    }
+
+    /* Stores call this once key has changed from old to value */
+    protected void reindex(String key, V old, V value)
+    {
+        for(Index<V> index : indexes.values())
+            index.update(key, old, value);
+    }
+
+    protected boolean isIndexed()
+    {
+        return !indexes.isEmpty();
+    }
+
+    /**
+     * Take a read-only, point-in-time view of the db (see Snapshot).
+     * Versioned stores do this in O(1); the default copies everything.
+     * @return the snapshot (close it when done)
+     */
+    public Snapshot<V> snapshot()
+    {
+        Map<String, V> copy = new HashMap<>();
+        forEach(copy::put);
+
+        return new CopySnapshot<>(this, copy);
+    }
+
+    /* Snapshot holding its own copy of the entries */
+    private static class CopySnapshot<V> extends Snapshot<V>
+    {
+        private final Map<String, V> entries;
+
+        CopySnapshot(Database<V> source, Map<String, V> entries)
+        {
+            super(source);
+            this.entries = entries;
+        }
+
+        @Override
+        public V get(String key)
+        {
+            return entries.get(key);
+        }
+
+        @Override
+        public boolean contains(String key)
+        {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public Set<KVPair<String, V>> items()
+        {
+            Set<KVPair<String, V>> items = new HashSet<>();
+            entries.forEach((key, value) -> items.add(new KVPair<>(key, value)));
+
+            return items;
+        }
+
+        @Override
+        public Set<String> keySet()
+        {
+            return Collections.unmodifiableSet(entries.keySet());
+        }
+
+        @Override
+        public List<V> values()
+        {
+            return new ArrayList<>(entries.values());
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, V> action)
+        {
+            entries.forEach(action);
+        }
+
+        @Override
+        public Stream<V> stream()
+        {
+            return entries.values().stream();
+        }
+    }
+
+    /**
+     * Get notified of changes; onLoaded is called once the initial load
+     * (see whenLoaded) has finished
+     * @param listener - listener to add
+     */
+    public void addListener(DatabaseListener<V> listener)
+    {
+        listeners.add(listener);
+
+        whenLoaded().thenRun(() -> {
+            if(listeners.contains(listener))
+                listener.onLoaded();
+        });
+    }
+
+    public void removeListener(DatabaseListener<V> listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Completes once the initial contents are available. Databases which
+     * load asynchronously override this; the rest are loaded on creation.
+     * @return future completed when loaded
+     */
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /* Stores call this once key has changed to value (null: removed) */
+    protected void changed(String key, V value)
+    {
+        for(DatabaseListener<V> listener : listeners)
+        {
+            if(value == null)
+                listener.onRemove(key);
+            else
+                listener.onPut(key, value);
+        }
+    }
+
+    protected boolean isObserved()
+    {
+        return !listeners.isEmpty();
+    }
+
+    /* Listener which reports an inner store's changes as our own */
+    protected DatabaseListener<V> relay()
+    {
+        return new DatabaseListener<V>()
+        {
+            @Override
+            public void onPut(String key, V value)
+            {
+                changed(key, value);
+            }
+
+            @Override
+            public void onRemove(String key)
+            {
+                changed(key, null);
+            }
+        };
+    }
+
+    /**
+     * Sort key for ordered scans: the case-folded key, then the key itself
+     * (so keys which only differ in case stay distinct)
+     * @param key - key to normalize
+     * @return the sort key
+     */
+    protected static String normalize(String key)
+    {
+        return key.toLowerCase() + '\0' + key;
+    }
+
+    /**
+     * Find the values whose key starts with prefix (ignoring case), in
+     * key order. Ordered databases do this in O(log n + k); the default
+     * scans everything.
+     * @param prefix - prefix to search for
+     * @return values, in key order
+     */
+    public Collection<V> prefixScan(String prefix)
+    {
+        String lower = prefix.toLowerCase();
+        TreeMap<String, V> result = new TreeMap<>();
+
+        forEach((key, value) -> {
+            if(key.toLowerCase().startsWith(lower))
+                result.put(normalize(key), value);
+        });
+
+        return result.values();
+    }
+
+    /**
+     * Find the values whose key is in [from, to) (ignoring case), in key
+     * order. Ordered databases do this in O(log n + k); the default scans
+     * everything.
+     * @param from - lowest key (inclusive)
+     * @param to - highest key (exclusive)
+     * @return values, in key order
+     */
+    public Collection<V> range(String from, String to)
+    {
+        String lo = from.toLowerCase(), hi = to.toLowerCase();
+        TreeMap<String, V> result = new TreeMap<>();
+
+        forEach((key, value) -> {
+            String lower = key.toLowerCase();
+
+            if(lower.compareTo(lo) >= 0 && lower.compareTo(hi) < 0)
+                result.put(normalize(key), value);
+        });
+
+        return result.values();
+    }
+
+    /**
+     * Atomically replace key's value, if it is still expected. Values are
+     * compared by identity, since equals may only compare keys (as
+     * Shelter's does). The default is only atomic against other
+     * compareAndSet calls; stores which allow concurrent writers override it.
+     * @param key - key to update
+     * @param expected - value key must hold (null: key must be absent)
+     * @param update - new value (null: remove key)
+     * @return true, if the value was replaced
+     */
+    public synchronized boolean compareAndSet(String key, V expected, V update)
+    {
+        if(get(key) != expected)
+            return false;
+
+        if(update == null)
+            return expected == null || remove(key);
+
+        return put(key, update);
+    }
+
+    /**
+     * Put (key, value), unless key is already present; as atomic as
+     * compareAndSet
+     * @param key - key to insert
+     * @param value - value associated with key
+     * @return true, if value was inserted
+     */
+    public boolean putIfAbsent(String key, V value)
+    {
+        return value != null && compareAndSet(key, null, value);
+    }
+
+    /**
+     * Atomically set key's value to fn(current value), retrying on
+     * contention. fn may run more than once, so it must not have side
+     * effects beyond its result, and must not modify the value it is
+     * given (return a modified copy, or the same value for no change).
+     * @param key - key to update
+     * @param fn - maps the current value (null: absent) to the new one
+     *             (null: remove key)
+     * @return the value key was left with
+     */
+    public V compute(String key, UnaryOperator<V> fn)
+    {
+        while(true)
+        {
+            V current = get(key);
+            V update = fn.apply(current);
+
+            if(update == current || compareAndSet(key, current, update))
+                return update;
+
+            /* Unchanged, so the write was rejected (e.g. by a unique index) */
+            if(get(key) == current)
+                return current;
+        }
+    }
+
+    /**
+     * Like compute, but the future completes with the value key was left
+     * with once that is final. Stores that confirm writes remotely (see
+     * FirebaseDB) complete it once the server has decided, which may undo
+     * an update compute reported; the default just calls compute.
+     * @param key - key to update
+     * @param fn - as for compute
+     * @return future of the value key was left with
+     */
+    public CompletableFuture<V> computeAsync(String key, UnaryOperator<V> fn)
+    {
+        return CompletableFuture.completedFuture(compute(key, fn));
+    }
+
+    /**
+     * Put every (key, value) in items into the database
+     * @param items - entries to insert
+     * @return true, if every put was successful
+     */
+    public boolean putAll(Map<String, V> items)
+    {
+        boolean result = true;
+
+        for(Map.Entry<String, V> entry : items.entrySet())
+            result &= put(entry.getKey(), entry.getValue());
+
+        return result;
+    }
+
+    /**
+     * Remove the entries corresponding to keys
+     * @param keys - keys to search against
+     * @return true, if every remove was successful
+     */
+    public boolean removeAll(Collection<String> keys)
+    {
+        boolean result = true;
+
+        for(String key : keys)
+            result &= remove(key);
+
+        return result;
+    }
+
+    /**
+     * Get the values associated with keys
+     * @param keys - keys to search against
+     * @return map from key to value, for the keys which exist
+     */
+    public Map<String, V> getAll(Collection<String> keys)
+    {
+        Map<String, V> result = new HashMap<>();
+
+        for(String key : keys)
+        {
+            V value = get(key);
+
+            if(value != null)
+                result.put(key, value);
+        }
+
+        return result;
+    }
 }
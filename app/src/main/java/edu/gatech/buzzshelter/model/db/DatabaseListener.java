@@ -0,0 +1,20 @@
+package edu.gatech.buzzshelter.model.db;
+
+/**
+ * Change notifications from a Database
+ *
+ * Callbacks run on the thread which made the change (for remote changes,
+ * the thread delivering them), after the change is visible to readers.
+ * They should be quick, and hand UI work over to the UI thread.
+ */
+public interface DatabaseListener<V>
+{
+    /* The initial load has finished (called at once if it already has) */
+    default void onLoaded() {}
+
+    /* key now maps to value */
+    default void onPut(String key, V value) {}
+
+    /* key was removed */
+    default void onRemove(String key) {}
+}
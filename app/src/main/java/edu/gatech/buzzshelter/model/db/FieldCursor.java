@@ -0,0 +1,177 @@
+package edu.gatech.buzzshelter.model.db;
+
+import java.util.Arrays;
+
+/**
+ * Reusable view over the fields of a single raw record
+ *
+ * Fields are stored back to back in one char buffer; numbers can be
+ * parsed straight out of it, without creating Strings.
+ */
+public final class FieldCursor
+{
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private char[] chars = new char[256];
+    private int length;
+
+    private int[] starts = new int[16], ends = new int[16];
+    private int size;
+
+    /* Start a new record */
+    public void clear()
+    {
+        length = 0;
+        size = 0;
+        starts[0] = 0;
+    }
+
+    /* Append c to the current field */
+    public void append(char c)
+    {
+        if(length == chars.length)
+            chars = Arrays.copyOf(chars, length * 2);
+
+        chars[length++] = c;
+    }
+
+    /* Finish the current field, and start the next one */
+    public void endField()
+    {
+        if(size + 1 == starts.length)
+        {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+        }
+
+        ends[size++] = length;
+        starts[size] = length;
+    }
+
+    /* Number of fields */
+    public int size()
+    {
+        return size;
+    }
+
+    public int length(int field)
+    {
+        return ends[field] - starts[field];
+    }
+
+    public char charAt(int field, int index)
+    {
+        return chars[starts[field] + index];
+    }
+
+    public boolean isEmpty(int field)
+    {
+        return length(field) == 0;
+    }
+
+    public String getString(int field)
+    {
+        return getString(field, 0, length(field));
+    }
+
+    /* Characters [from, to) of field */
+    public String getString(int field, int from, int to)
+    {
+        return new String(chars, starts[field] + from, to - from);
+    }
+
+    public int getInt(int field)
+    {
+        return getInt(field, 0, length(field));
+    }
+
+    /* Parse characters [from, to) of field as a decimal int */
+    public int getInt(int field, int from, int to)
+    {
+        int pos = starts[field] + from, end = starts[field] + to;
+        boolean negative = pos < end && chars[pos] == '-';
+
+        if(negative || (pos < end && chars[pos] == '+'))
+            pos++;
+
+        if(pos == end)
+            throw new NumberFormatException("Empty number in field " + field);
+
+        long value = 0;
+
+        for(; pos < end; pos++)
+        {
+            int digit = chars[pos] - '0';
+
+            if(digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L)
+                return Integer.parseInt(getString(field, from, to));
+
+            value = value * 10 + digit;
+        }
+
+        value = negative ? -value : value;
+
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Out of range: " + getString(field, from, to));
+
+        return (int)value;
+    }
+
+    /* Parse field as a plain decimal (e.g. -84.410142) */
+    public double getDouble(int field)
+    {
+        int pos = starts[field], end = ends[field];
+        boolean negative = pos < end && chars[pos] == '-';
+
+        if(negative || (pos < end && chars[pos] == '+'))
+            pos++;
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean point = false;
+
+        for(; pos < end; pos++)
+        {
+            char c = chars[pos];
+
+            if(c == '.' && !point)
+            {
+                point = true;
+                continue;
+            }
+
+            /* Exponents, long inputs etc. take the slow (exact) path */
+            if(c < '0' || c > '9' || digits == 18)
+                return Double.parseDouble(getString(field));
+
+            mantissa = mantissa * 10 + (c - '0');
+            digits++;
+
+            if(point)
+                scale++;
+        }
+
+        if(digits == 0)
+            return Double.parseDouble(getString(field));
+
+        /* Both operands are exact, so the division rounds correctly */
+        double value = mantissa <= (1L << 53) ? mantissa / POW10[scale]
+                : Double.parseDouble(getString(field));
+
+        return negative ? -value : value;
+    }
+
+    /* Copy out the fields (for plain Encoders) */
+    public String[] toArray()
+    {
+        String[] raw = new String[size];
+
+        for(int i = 0; i < size; i++)
+            raw[i] = getString(i);
+
+        return raw;
+    }
+}
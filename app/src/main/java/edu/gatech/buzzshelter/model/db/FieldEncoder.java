@@ -0,0 +1,14 @@
+package edu.gatech.buzzshelter.model.db;
+
+/**
+ * Encoder which reads fields in place, rather than from a String[]
+ *
+ * Databases which load raw records (e.g. CsvDB) prefer this contract when
+ * the Encoder also implements it: the cursor is reused for every record,
+ * so only the values the encoder keeps need to be allocated.
+ */
+public interface FieldEncoder<V>
+{
+    /* Encode the record under fields into the object (don't keep fields) */
+    V encode(FieldCursor fields);
+}
@@ -0,0 +1,136 @@
+package edu.gatech.buzzshelter.model.db;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Secondary index: maps an extracted (non-primary) key to primary keys
+ * @param <V> value type
+ */
+public final class Index<V>
+{
+    private final Function<V, ?> extractor;
+    private final boolean unique;
+
+    private final ConcurrentHashMap<Object, Set<String>> entries = new ConcurrentHashMap<>();
+
+    Index(Function<V, ?> extractor, boolean unique)
+    {
+        this.extractor = extractor;
+        this.unique = unique;
+    }
+
+    /* Would putting (key, value) violate uniqueness? */
+    boolean conflicts(String key, V value)
+    {
+        if(!unique || value == null)
+            return false;
+
+        Object secondary = extractor.apply(value);
+
+        if(secondary == null)
+            return false;
+
+        Set<String> keys = entries.get(secondary);
+        return keys != null && !keys.isEmpty() && !keys.contains(key);
+    }
+
+    /*
+     * Claim value's secondary key for key, atomically with respect to other
+     * keys; false if another key already has it. The caller must serialize
+     * writes to key, and release the claim if the write doesn't happen.
+     */
+    boolean reserve(String key, V value)
+    {
+        if(!unique || value == null)
+            return true;
+
+        Object secondary = extractor.apply(value);
+
+        if(secondary == null)
+            return true;
+
+        boolean[] result = {true};
+
+        entries.compute(secondary, (k, keys) -> {
+            if(keys == null)
+                keys = ConcurrentHashMap.newKeySet();
+            else if(!keys.isEmpty() && !keys.contains(key))
+            {
+                result[0] = false;
+                return keys;
+            }
+
+            keys.add(key);
+            return keys;
+        });
+
+        return result[0];
+    }
+
+    /* Undo reserve(key, value); key still holds current (may be null) */
+    void release(String key, V current, V value)
+    {
+        if(!unique || value == null)
+            return;
+
+        Object secondary = extractor.apply(value);
+
+        if(secondary == null || current != null && secondary.equals(extractor.apply(current)))
+            return;
+
+        entries.computeIfPresent(secondary, (k, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /* key changed from old to value (either may be null) */
+    void update(String key, V old, V value)
+    {
+        Object before = old == null ? null : extractor.apply(old);
+        Object after = value == null ? null : extractor.apply(value);
+
+        if(before != null && before.equals(after))
+            return;
+
+        if(before != null)
+        {
+            entries.computeIfPresent(before, (k, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+
+        if(after != null)
+        {
+            entries.computeIfAbsent(after, k -> ConcurrentHashMap.newKeySet())
+                    .add(key);
+        }
+    }
+
+    /* Does value have the given secondary key? */
+    boolean matches(V value, Object secondary)
+    {
+        Object current = extractor.apply(value);
+        return current != null && current.equals(secondary);
+    }
+
+    /**
+     * Find the primary keys whose value has the given secondary key
+     * @param secondary - secondary key to search against
+     * @return set of primary keys (empty, if there are none)
+     */
+    public Set<String> find(Object secondary)
+    {
+        Set<String> keys = entries.get(secondary);
+        return keys == null ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+    }
+
+    public boolean isUnique()
+    {
+        return unique;
+    }
+}
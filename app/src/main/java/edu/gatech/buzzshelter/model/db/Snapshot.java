@@ -0,0 +1,65 @@
+package edu.gatech.buzzshelter.model.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Read-only, point-in-time view of a database
+ *
+ * Every read sees the source as it was when the snapshot was taken, no
+ * matter what is written to it since, so several queries against one
+ * snapshot always agree. Values are shared with the source, so they must
+ * not be modified in place (put a modified copy instead).
+ *
+ * Close snapshots when done: stores which keep old versions around for
+ * them (see OrderedDB) can only drop those once no snapshot needs them.
+ *
+ * @param <V> value type
+ */
+public abstract class Snapshot<V> extends Database<V> implements AutoCloseable
+{
+    private final Database<V> source;
+
+    protected Snapshot(Database<V> source)
+    {
+        this.source = source;
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        throw new UnsupportedOperationException("Snapshots are read-only");
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        throw new UnsupportedOperationException("Snapshots are read-only");
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        throw new UnsupportedOperationException("Snapshots are read-only");
+    }
+
+    /* Indexes are not versioned, so this scans the snapshot */
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        Index<V> idx = source.index(index);
+        List<V> result = new ArrayList<>();
+
+        forEach((key, current) -> {
+            if(idx.matches(current, value))
+                result.add(current);
+        });
+
+        return result;
+    }
+
+    /* Release the snapshot */
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,708 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+
+/**
+ * Bounded cache in front of another (slow or large) database
+ *
+ * Point lookups are served from at most `capacity` cached entries, with
+ * the eviction policy deciding what to keep. Writes always reach the
+ * backend; with WRITE_THROUGH they also update the cache, with
+ * WRITE_AROUND they just invalidate it. Bulk reads (keySet, values, ...)
+ * go straight to the backend.
+ *
+ * The cache listens to the backend, so changes made behind its back (e.g.
+ * FirebaseDB applying a remote update) evict the cached entry. Hits only
+ * take a short lock on the cache itself; a miss loads from the backend
+ * outside of it, and concurrent misses on one key share a single load.
+ *
+ * @param <V> value type
+ */
+public class CachedDB<V> extends Database<V>
+{
+    public enum Policy
+    {
+        LRU, LFU, TINY_LFU
+    }
+
+    public enum WriteMode
+    {
+        WRITE_THROUGH, WRITE_AROUND
+    }
+
+    private Database<V> backend;
+    private WriteMode mode;
+
+    /* Guarded by this (never held across a backend call) */
+    private Map<String, V> cache = new HashMap<>();
+    private Tracker tracker;
+
+    /* Backend loads in progress; invalidating a key drops its load */
+    private ConcurrentHashMap<String, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    /* Serializes writes, so the cache sees them in backend order */
+    private final Object writeLock = new Object();
+    private volatile Thread writer;
+
+    /* Changes from anywhere but our own writes */
+    private AtomicLong foreign = new AtomicLong();
+
+    private final DatabaseListener<V> invalidator = new DatabaseListener<V>()
+    {
+        @Override
+        public void onPut(String key, V value)
+        {
+            changed(key);
+        }
+
+        @Override
+        public void onRemove(String key)
+        {
+            changed(key);
+        }
+
+        private void changed(String key)
+        {
+            if(Thread.currentThread() != writer)
+                foreign.incrementAndGet();
+
+            invalidate(key);
+        }
+    };
+
+    /* Statistics */
+    private long hits, misses, evictions;
+
+    public CachedDB(Database<V> backend, int capacity)
+    {
+        this(backend, capacity, Policy.LRU, WriteMode.WRITE_THROUGH);
+    }
+
+    public CachedDB(Database<V> backend, int capacity, Policy policy, WriteMode mode)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.backend = backend;
+        this.mode = mode;
+
+        switch(policy)
+        {
+            case LFU:
+                tracker = new LfuTracker(capacity);
+                break;
+
+            case TINY_LFU:
+                tracker = new TinyLfuTracker(capacity);
+                break;
+
+            default:
+                tracker = new LruTracker(capacity);
+                break;
+        }
+
+        backend.addListener(invalidator);
+    }
+
+    /* Add (key, value) to the cache, evicting if needed */
+    private void admit(String key, V value)
+    {
+        if(cache.put(key, value) != null)
+        {
+            tracker.access(key);
+            return;
+        }
+
+        String evicted = tracker.add(key);
+
+        if(evicted != null)
+        {
+            cache.remove(evicted);
+            evictions++;
+        }
+    }
+
+    private synchronized void invalidate(String key)
+    {
+        loading.remove(key);
+
+        if(cache.remove(key) != null)
+            tracker.remove(key);
+    }
+
+    /* Caller holds writeLock: start a backend write (see written) */
+    private long begin()
+    {
+        writer = Thread.currentThread();
+        return foreign.get();
+    }
+
+    /*
+     * After a backend write: cache value (write-through), unless it failed
+     * or someone else changed the backend since begin() returned `before`
+     * (their invalidation may already have run)
+     */
+    private synchronized void written(String key, V value, boolean ok, long before)
+    {
+        writer = null;
+
+        if(ok && value != null && foreign.get() == before && mode == WriteMode.WRITE_THROUGH)
+            admit(key, value);
+        else
+            invalidate(key);
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            boolean result = backend.put(key, value);
+
+            written(key, value, result, before);
+            return result;
+        }
+    }
+
+    /* Cached value of key (counting a hit), or null (counting a miss) */
+    private synchronized V cached(String key)
+    {
+        V value = cache.get(key);
+
+        if(value == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        tracker.access(key);
+
+        return value;
+    }
+
+    @Override
+    public V get(String key)
+    {
+        V value = cached(key);
+
+        if(value != null)
+            return value;
+
+        /* Share a load already in progress */
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> current = loading.putIfAbsent(key, load);
+
+        if(current != null)
+            return current.join();
+
+        try
+        {
+            value = backend.get(key);
+        }
+        catch (RuntimeException e)
+        {
+            loading.remove(key, load);
+            load.completeExceptionally(e);
+
+            throw e;
+        }
+
+        synchronized(this)
+        {
+            /* Only cache it if key wasn't written while loading */
+            if(loading.remove(key, load) && value != null)
+                admit(key, value);
+        }
+
+        load.complete(value);
+        return value;
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        synchronized(this)
+        {
+            if(cache.containsKey(key))
+                return true;
+        }
+
+        return backend.contains(key);
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            boolean result = backend.remove(key);
+            written(key, null, result, before);
+            return result;
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            boolean result = backend.compareAndSet(key, expected, update);
+
+            /* On failure the cached copy may be stale (compute would spin on it) */
+            written(key, update, result, before);
+            return result;
+        }
+    }
+
+    /* Forwarded, so the backend's own compute (e.g. a server transaction) runs */
+    @Override
+    public V compute(String key, UnaryOperator<V> fn)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            V result = backend.compute(key, fn);
+
+            written(key, null, true, before);
+            return result;
+        }
+    }
+
+    /* The backend may still change key when the future completes */
+    @Override
+    public CompletableFuture<V> computeAsync(String key, UnaryOperator<V> fn)
+    {
+        CompletableFuture<V> result;
+
+        synchronized(writeLock)
+        {
+            long before = begin();
+            result = backend.computeAsync(key, fn);
+
+            written(key, null, true, before);
+        }
+
+        return result.whenComplete((value, error) -> invalidate(key));
+    }
+
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            boolean result = backend.putAll(items);
+
+            for(Map.Entry<String, V> entry : items.entrySet())
+                written(entry.getKey(), entry.getValue(), result, before);
+
+            return result;
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<String> keys)
+    {
+        synchronized(writeLock)
+        {
+            long before = begin();
+            boolean result = backend.removeAll(keys);
+            for(String key : keys)
+                written(key, null, result, before);
+
+            return result;
+        }
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        backend.addIndex(name, extractor, unique);
+    }
+
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        return backend.lookup(index, value);
+    }
+
+    /* Every write reaches the backend, so its events are ours */
+    @Override
+    public void addListener(DatabaseListener<V> listener)
+    {
+        backend.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(DatabaseListener<V> listener)
+    {
+        backend.removeListener(listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return backend.whenLoaded();
+    }
+
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        return backend.snapshot();
+    }
+
+    @Override
+    public Collection<V> prefixScan(String prefix)
+    {
+        return backend.prefixScan(prefix);
+    }
+
+    @Override
+    public Collection<V> range(String from, String to)
+    {
+        return backend.range(from, to);
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        return backend.items();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return backend.keySet();
+    }
+
+    @Override
+    public List<V> values()
+    {
+        return backend.values();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        backend.forEach(action);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return backend.stream();
+    }
+
+    /* Statistics */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /* Eviction policy bookkeeping (keys only) */
+    private interface Tracker
+    {
+        /* key was read (or overwritten) */
+        void access(String key);
+
+        /* key is new; returns the key to evict (possibly key), or null */
+        String add(String key);
+
+        /* key was invalidated */
+        void remove(String key);
+    }
+
+    /* Least recently used */
+    private static class LruTracker implements Tracker
+    {
+        private final int capacity;
+        private LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+        LruTracker(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void access(String key)
+        {
+            order.get(key);
+        }
+
+        @Override
+        public String add(String key)
+        {
+            order.put(key, Boolean.TRUE);
+
+            if(order.size() <= capacity)
+                return null;
+
+            return eldest(order);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            order.remove(key);
+        }
+    }
+
+    /* Least frequently used (ties broken by least recently used), O(1) */
+    private static class LfuTracker implements Tracker
+    {
+        private final int capacity;
+
+        private Map<String, Integer> counts = new HashMap<>();
+        private Map<Integer, LinkedHashSet<String>> buckets = new HashMap<>();
+        private int min;
+
+        LfuTracker(int capacity)
+        {
+            this.capacity = capacity;
+        }
+
+        private void bucket(int count, String key)
+        {
+            LinkedHashSet<String> bucket = buckets.get(count);
+
+            if(bucket == null)
+            {
+                bucket = new LinkedHashSet<>();
+                buckets.put(count, bucket);
+            }
+
+            bucket.add(key);
+        }
+
+        private void unbucket(int count, String key)
+        {
+            LinkedHashSet<String> bucket = buckets.get(count);
+            bucket.remove(key);
+
+            if(bucket.isEmpty())
+            {
+                buckets.remove(count);
+
+                if(min == count)
+                    min++;
+            }
+        }
+
+        @Override
+        public void access(String key)
+        {
+            Integer count = counts.get(key);
+
+            if(count == null)
+                return;
+
+            unbucket(count, key);
+            counts.put(key, count + 1);
+            bucket(count + 1, key);
+        }
+
+        @Override
+        public String add(String key)
+        {
+            String evicted = null;
+
+            if(counts.size() >= capacity)
+            {
+                evicted = buckets.get(min).iterator().next();
+                drop(evicted);
+            }
+
+            counts.put(key, 1);
+            bucket(1, key);
+            min = 1;
+
+            return evicted;
+        }
+
+        private void drop(String key)
+        {
+            Integer count = counts.remove(key);
+
+            if(count != null)
+                unbucket(count, key);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            drop(key);
+
+            /* min is only trusted while it points at a live bucket */
+            if(!buckets.containsKey(min) && !buckets.isEmpty())
+                min = buckets.keySet().stream().min(Integer::compare).get();
+        }
+    }
+
+    /*
+     * W-TinyLFU: new keys enter a small LRU window; when they leave it,
+     * they only displace the main region's LRU victim if a count-min
+     * sketch says they are used more often
+     */
+    private static class TinyLfuTracker implements Tracker
+    {
+        private final int windowSize, mainSize;
+
+        private LinkedHashMap<String, Boolean> window = new LinkedHashMap<>(16, 0.75f, true);
+        private LinkedHashMap<String, Boolean> main = new LinkedHashMap<>(16, 0.75f, true);
+
+        private FrequencySketch sketch;
+
+        TinyLfuTracker(int capacity)
+        {
+            windowSize = Math.max(1, capacity / 100);
+            mainSize = capacity - windowSize;
+            sketch = new FrequencySketch(capacity);
+        }
+
+        @Override
+        public void access(String key)
+        {
+            sketch.increment(key);
+
+            if(window.get(key) == null)
+                main.get(key);
+        }
+
+        @Override
+        public String add(String key)
+        {
+            sketch.increment(key);
+            window.put(key, Boolean.TRUE);
+
+            if(window.size() <= windowSize)
+                return null;
+
+            String candidate = eldest(window);
+
+            if(main.size() < mainSize)
+            {
+                main.put(candidate, Boolean.TRUE);
+                return null;
+            }
+
+            if(main.isEmpty())
+                return candidate;
+
+            String victim = main.keySet().iterator().next();
+
+            /* Admission filter */
+            if(sketch.frequency(candidate) <= sketch.frequency(victim))
+                return candidate;
+
+            main.remove(victim);
+            main.put(candidate, Boolean.TRUE);
+
+            return victim;
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            if(window.remove(key) == null)
+                main.remove(key);
+        }
+    }
+
+    /* 4-row count-min sketch of 4-bit counters, halved periodically (aging) */
+    private static class FrequencySketch
+    {
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private byte[] table;
+        private int mask, additions, sampleSize;
+
+        FrequencySketch(int capacity)
+        {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 2) - 1) << 1;
+
+            table = new byte[width * SEEDS.length];
+            mask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        private int index(int row, int hash)
+        {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % SEEDS.length];
+            return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+        }
+
+        void increment(String key)
+        {
+            int hash = key.hashCode();
+
+            for(int row = 0; row < SEEDS.length; row++)
+            {
+                int i = index(row, hash);
+
+                if(table[i] < 15)
+                    table[i]++;
+            }
+
+            if(++additions == sampleSize)
+            {
+                for(int i = 0; i < table.length; i++)
+                    table[i] >>= 1;
+
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key)
+        {
+            int hash = key.hashCode(), min = Integer.MAX_VALUE;
+
+            for(int row = 0; row < SEEDS.length; row++)
+                min = Math.min(min, table[index(row, hash)]);
+
+            return min;
+        }
+    }
+
+    /* Remove and return the least recently used key */
+    private static String eldest(LinkedHashMap<String, Boolean> order)
+    {
+        Iterator<String> it = order.keySet().iterator();
+        String key = it.next();
+        it.remove();
+
+        return key;
+    }
+}
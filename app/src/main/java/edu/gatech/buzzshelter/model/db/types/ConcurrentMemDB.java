@@ -0,0 +1,183 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.KVPair;
+
+/**
+ * Thread-safe in-memory key-value database
+ *
+ * Reads never lock, and writes only contend on the same hash bin, so
+ * readers and writers on different keys scale with the number of cores.
+ * Iteration is weakly consistent. Null values are not supported.
+ * Unique secondary keys are claimed under the key's bin lock, before the
+ * write, so two keys can't both take the same one.
+ *
+ * @param <V> value type
+ */
+public class ConcurrentMemDB<V> extends Database<V>
+{
+    private ConcurrentHashMap<String, V> db = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        if(value == null)
+            return false;
+
+        boolean[] result = new boolean[1];
+
+        /* Index under the bin lock, so it sees puts in order */
+        db.compute(key, (k, old) -> {
+            if(!reserveUnique(k, old, value))
+                return old;
+
+            reindex(k, old, value);
+            result[0] = true;
+
+            return value;
+        });
+
+        /* Listeners run outside the bin lock (they may read the map) */
+        if(result[0])
+            changed(key, value);
+
+        return result[0];
+    }
+
+    /**
+     * Put (key, value), unless key is already present
+     * @param key - key to insert
+     * @param value - value associated with key
+     * @return true, if value was inserted
+     */
+    @Override
+    public boolean putIfAbsent(String key, V value)
+    {
+        if(value == null)
+            return false;
+
+        boolean[] result = new boolean[1];
+
+        db.compute(key, (k, old) -> {
+            if(old != null || !reserveUnique(k, null, value))
+                return old;
+
+            reindex(k, null, value);
+            result[0] = true;
+
+            return value;
+        });
+
+        if(result[0])
+            changed(key, value);
+
+        return result[0];
+    }
+
+    /* Identity check and swap under the bin lock */
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        if(expected == null)
+            return update == null ? !db.containsKey(key) : putIfAbsent(key, update);
+
+        boolean[] result = new boolean[1];
+
+        db.computeIfPresent(key, (k, old) -> {
+            if(old != expected || update != null && !reserveUnique(k, old, update))
+                return old;
+
+            reindex(k, old, update);
+            result[0] = true;
+
+            return update;
+        });
+
+        if(result[0])
+            changed(key, update);
+
+        return result[0];
+    }
+
+    /* Under each key's bin lock, so a concurrent write is never overtaken */
+    @Override
+    protected void backfill(BiConsumer<String, V> action)
+    {
+        for(String key : db.keySet())
+        {
+            db.computeIfPresent(key, (k, value) -> {
+                action.accept(k, value);
+                return value;
+            });
+        }
+    }
+
+    @Override
+    public V get(String key)
+    {
+        return db.get(key);
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        return db.containsKey(key);
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        boolean[] result = new boolean[1];
+
+        db.computeIfPresent(key, (k, old) -> {
+            reindex(k, old, null);
+            result[0] = true;
+
+            return null;
+        });
+
+        if(result[0])
+            changed(key, null);
+
+        return result[0];
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        db.forEach(action);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return db.values().stream();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return db.keySet();
+    }
+
+    @Override
+    public List<V> values()
+    {
+        return new ArrayList<>(db.values());
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        return db.entrySet().stream().map(x -> new KVPair<>(x.getKey(), x.getValue()))
+                .collect(Collectors.toSet());
+    }
+}
@@ -7,52 +7,108 @@ import org.apache.commons.csv.CSVRecord;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import edu.gatech.buzzshelter.model.db.Database;
 import edu.gatech.buzzshelter.model.db.Encoder;
+import edu.gatech.buzzshelter.model.db.FieldCursor;
+import edu.gatech.buzzshelter.model.db.FieldEncoder;
 import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+import edu.gatech.buzzshelter.model.db.util.CsvReader;
 
 public class CsvDB<V> extends Database<V>
 {
     private Encoder<V> encoder;
     private InputStream source;
 
-    /* In-memory copy */
-    private Database<V> mem = new MemDB<>();
+    /* Set if encoder can decode in place (see FieldEncoder) */
+    private FieldEncoder<V> fieldEncoder;
+
+    /* In-memory copy (safe to read while loading) */
+    private Database<V> mem = new ConcurrentMemDB<>();
 
     public CsvDB(Encoder<V> encoder, InputStream source)
+    {
+        this(encoder, source, false);
+    }
+
+    /* Parallel loading requires encoder to be safe across threads */
+    public CsvDB(Encoder<V> encoder, InputStream source, boolean parallel)
     {
         this.encoder = encoder;
         this.source = source;
 
-        parse();
+        if(encoder instanceof FieldEncoder)
+            fieldEncoder = fieldEncoder(encoder);
+
+        if(parallel)
+            parseParallel();
+        else
+            parse();
+
+        /* Loaded by now (whenLoaded is complete); report later changes */
+        mem.addListener(relay());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> FieldEncoder<V> fieldEncoder(Encoder<V> encoder)
+    {
+        /* Encoder<V> and FieldEncoder<V> share V by contract */
+        return (FieldEncoder<V>)encoder;
     }
 
-    /* Parse the CSV */
+    /* Parse the CSV (one record at a time) */
     private void parse()
     {
-        try
+        if(fieldEncoder != null)
         {
-            CSVParser parser = new CSVParser(new InputStreamReader(source), CSVFormat.EXCEL);
-            List<CSVRecord> records = parser.getRecords();
+            try(Reader reader = new InputStreamReader(source))
+            {
+                FieldCursor fields = new FieldCursor();
+                CsvReader csv = new CsvReader(reader);
 
-            /* Skip first record (header) */
-            for(int i = 1; i < records.size(); i++)
+                /* Skip first record (header) */
+                csv.next(fields);
+
+                while(csv.next(fields))
+                {
+                    V value = fieldEncoder.encode(fields);
+                    mem.put(encoder.getKey(value), value);
+                }
+            }
+            catch (IOException e)
             {
-                CSVRecord record = records.get(i);
-                String[] items = new String[record.size()];
+                e.printStackTrace();
+            }
 
-                for(int j = 0; j < items.length; j++)
-                    items[j] = record.get(j);
+            return;
+        }
 
-                V value = encoder.encode(items);
-                String key = encoder.getKey(value);
+        try(CSVParser parser = new CSVParser(new InputStreamReader(source), CSVFormat.EXCEL))
+        {
+            Iterator<CSVRecord> records = parser.iterator();
 
-                mem.put(key, value);
-            }
+            /* Skip first record (header) */
+            if(records.hasNext())
+                records.next();
 
+            while(records.hasNext())
+                load(records.next());
         }
         catch (IOException e)
         {
@@ -60,6 +116,191 @@ public class CsvDB<V> extends Database<V>
         }
     }
 
+    /* Encode a single record into the in-memory copy */
+    private void load(CSVRecord record)
+    {
+        V value = encode(encoder, record);
+        mem.put(encoder.getKey(value), value);
+    }
+
+    private static <V> V encode(Encoder<V> encoder, CSVRecord record)
+    {
+        String[] items = new String[record.size()];
+
+        for(int j = 0; j < items.length; j++)
+            items[j] = record.get(j);
+
+        return encoder.encode(items);
+    }
+
+    /* Parse the CSV in chunks, spread across all the cores */
+    private void parseParallel()
+    {
+        try
+        {
+            String text = readAll();
+            List<Integer> bounds = split(text, ForkJoinPool.commonPool().getParallelism() * 4);
+
+            List<KVPair<String, V>> parsed = ForkJoinPool.commonPool()
+                    .invoke(new ChunkTask<>(encoder, fieldEncoder, text, bounds, 0, bounds.size() - 1));
+
+            /* Merge in file order, so later duplicates win (same as serial) */
+            for(KVPair<String, V> pair : parsed)
+                mem.put(pair.getKey(), pair.getValue());
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private String readAll() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+
+        try(Reader reader = new InputStreamReader(source))
+        {
+            int read;
+
+            while((read = reader.read(buffer)) != -1)
+                text.append(buffer, 0, read);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Find chunk boundaries which fall on record (not just line) boundaries
+     * @param text - entire CSV contents
+     * @param chunks - desired number of chunks
+     * @return offsets, starting after the header and ending at text.length()
+     */
+    private static List<Integer> split(String text, int chunks)
+    {
+        List<Integer> bounds = new ArrayList<>();
+        boolean quoted = false;
+
+        int target = Math.max(1, text.length() / chunks);
+        int last = -1;
+
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            /* Escaped quotes ("") toggle twice, so they cancel out */
+            if(c == '"')
+                quoted = !quoted;
+
+            if(c != '\n' || quoted)
+                continue;
+
+            /* First boundary is the end of the header */
+            if(last == -1 || i + 1 - last >= target)
+            {
+                last = i + 1;
+                bounds.add(last);
+            }
+        }
+
+        if(bounds.isEmpty())
+            bounds.add(text.length());
+
+        if(bounds.get(bounds.size() - 1) != text.length())
+            bounds.add(text.length());
+
+        return bounds;
+    }
+
+    /*
+     * Parse chunks [lo, hi) of the text, splitting the work in half
+     * (static, so tasks don't hold on to the CsvDB; never serialized)
+     */
+    private static final class ChunkTask<V> extends RecursiveTask<List<KVPair<String, V>>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Encoder<V> encoder;
+        private final transient FieldEncoder<V> fieldEncoder;
+        private final String text;
+        private final List<Integer> bounds;
+        private final int lo, hi;
+
+        /* fieldEncoder is null unless encoder is a FieldEncoder */
+        ChunkTask(Encoder<V> encoder, FieldEncoder<V> fieldEncoder, String text,
+                  List<Integer> bounds, int lo, int hi)
+        {
+            this.encoder = encoder;
+            this.fieldEncoder = fieldEncoder;
+            this.text = text;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected List<KVPair<String, V>> compute()
+        {
+            if(hi - lo > 1)
+            {
+                int mid = (lo + hi) >>> 1;
+
+                ChunkTask<V> left = new ChunkTask<>(encoder, fieldEncoder, text, bounds, lo, mid);
+                ChunkTask<V> right = new ChunkTask<>(encoder, fieldEncoder, text, bounds, mid, hi);
+
+                left.fork();
+                List<KVPair<String, V>> tail = right.compute();
+                List<KVPair<String, V>> result = left.join();
+
+                result.addAll(tail);
+                return result;
+            }
+
+            List<KVPair<String, V>> result = new ArrayList<>();
+
+            if(hi <= lo)
+                return result;
+
+            String chunk = text.substring(bounds.get(lo), bounds.get(hi));
+
+            if(fieldEncoder != null)
+            {
+                FieldCursor fields = new FieldCursor();
+                CsvReader csv = new CsvReader(new StringReader(chunk));
+
+                try
+                {
+                    while(csv.next(fields))
+                    {
+                        V value = fieldEncoder.encode(fields);
+                        result.add(new KVPair<>(encoder.getKey(value), value));
+                    }
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+
+                return result;
+            }
+
+            try(CSVParser parser = CSVParser.parse(chunk, CSVFormat.EXCEL))
+            {
+                for(CSVRecord record : parser)
+                {
+                    V value = encode(encoder, record);
+                    result.add(new KVPair<>(encoder.getKey(value), value));
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            return result;
+        }
+    }
+
     @Override
     public boolean put(String key, V value)
     {
@@ -84,6 +325,78 @@ public class CsvDB<V> extends Database<V>
         return mem.remove(key);
     }
 
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        return mem.compareAndSet(key, expected, update);
+    }
+
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        return mem.putAll(items);
+    }
+
+    @Override
+    public boolean removeAll(Collection<String> keys)
+    {
+        return mem.removeAll(keys);
+    }
+
+    @Override
+    public Map<String, V> getAll(Collection<String> keys)
+    {
+        return mem.getAll(keys);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        mem.forEach(action);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return mem.stream();
+    }
+
+    @Override
+    public List<V> scan(Predicate<V> pred, int limit)
+    {
+        return mem.scan(pred, limit);
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        mem.addIndex(name, extractor, unique);
+    }
+
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        return mem.lookup(index, value);
+    }
+
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        return mem.snapshot();
+    }
+
+    @Override
+    public Collection<V> prefixScan(String prefix)
+    {
+        return mem.prefixScan(prefix);
+    }
+
+    @Override
+    public Collection<V> range(String from, String to)
+    {
+        return mem.range(from, to);
+    }
+
     @Override
     public Set<String> keySet()
     {
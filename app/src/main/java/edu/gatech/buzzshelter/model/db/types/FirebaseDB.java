@@ -2,135 +2,555 @@ package edu.gatech.buzzshelter.model.db.types;
 
 import android.util.Log;
 
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import edu.gatech.buzzshelter.model.db.Database;
 import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+import edu.gatech.buzzshelter.model.db.util.Histogram;
+import edu.gatech.buzzshelter.model.db.util.WriteBehind;
 
+/**
+ * Local copy of a Firebase subtree, written through to the server
+ *
+ * Reads and writes are served by the local copy. put, remove and
+ * compareAndSet are then sent as plain writes, so the last device to
+ * write a key wins; compareAndSet is only atomic on this device. Only
+ * compute and computeAsync are checked against the server's copy, in a
+ * transaction, and computeAsync tells the caller how that turned out.
+ *
+ * @param <T> value type
+ */
 public class FirebaseDB<T> extends Database<T>
 {
     private DatabaseReference ref;
-    private volatile MemDB<T> mem = new MemDB<>();
+    private Class<T> type;
 
-    /* Lock for database operations */
+    /* Local copy; must be thread-safe, since readers never lock */
+    private Database<T> mem;
+
+    /* Orders local writes (see remote) */
     private Lock lock = new ReentrantLock();
 
+    /* Keeps remote writes in the same order as the local ones */
+    private Lock remote = new ReentrantLock();
+
+    /* If set, remote writes are coalesced and sent in batches */
+    private volatile WriteBehind behind;
+
+    /* Time (ns) writers spend waiting on lock/remote */
+    private Histogram lockWait = new Histogram();
+
+    /* Completed once the initial contents have arrived */
+    private CompletableFuture<Void> loaded = new CompletableFuture<>();
+
     /* Should be T.class (hack) */
     public FirebaseDB(String root, Class<T> type)
     {
+        this(root, type, false);
+    }
+
+    /**
+     * Connect to the database at root
+     * @param root - path of the subtree to mirror
+     * @param type - should be T.class (hack)
+     * @param live - keep applying remote changes (child by child), rather
+     *               than loading the subtree once
+     */
+    public FirebaseDB(String root, Class<T> type, boolean live)
+    {
+        this(root, type, live, new ConcurrentMemDB<>());
+    }
+
+    /**
+     * Connect to the database at root
+     * @param root - path of the subtree to mirror
+     * @param type - should be T.class (hack)
+     * @param live - keep applying remote changes (see above)
+     * @param mem - thread-safe store for the local copy (e.g. OrderedDB)
+     */
+    public FirebaseDB(String root, Class<T> type, boolean live, Database<T> mem)
+    {
+        this.mem = mem;
+        this.type = type;
+
+        /* Local and remote changes both land in mem */
+        mem.addListener(relay());
+
         FirebaseDatabase database = FirebaseDatabase.getInstance();
         ref = database.getReference(root);
 
+        if(live)
+            sync(type);
+        else
+            load(type);
+    }
+
+    /* Apply remote changes as they happen; only changed children are sent */
+    private void sync(Class<T> type)
+    {
+        ref.addChildEventListener(new ChildEventListener()
+        {
+            @Override
+            public void onChildAdded(DataSnapshot data, String previous)
+            {
+                mem.put(data.getKey(), data.getValue(type));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot data, String previous)
+            {
+                mem.put(data.getKey(), data.getValue(type));
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot data)
+            {
+                mem.remove(data.getKey());
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot data, String previous) {}
+
+            @Override
+            public void onCancelled(DatabaseError error)
+            {
+                Log.w("DB", "Failed to sync value.", error.toException());
+            }
+        });
+
+        /* Value events fire after the child events for the same data */
+        ref.addListenerForSingleValueEvent(new ValueEventListener()
+        {
+            @Override
+            public void onDataChange(DataSnapshot dS)
+            {
+                loaded.complete(null);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error)
+            {
+                loaded.completeExceptionally(error.toException());
+            }
+        });
+    }
+
+    /* Load the entire subtree once */
+    private void load(Class<T> type)
+    {
         ref.addValueEventListener(new ValueEventListener()
         {
             @Override
             public void onDataChange(DataSnapshot dS)
             {
                 ref.removeEventListener(this);
-                Iterable<DataSnapshot> snaps = dS.getChildren();
 
-                /* Populate all the data into memory */
-                lock.lock();
-
-                for(DataSnapshot data : snaps)
-                {
-                    T item = data.getValue(type);
-                    mem.put(data.getKey(), item);
-                }
+                /* Local writes made while loading take precedence */
+                for(DataSnapshot data : dS.getChildren())
+                    mem.putIfAbsent(data.getKey(), data.getValue(type));
 
-                lock.unlock();
+                loaded.complete(null);
             }
 
             @Override
             public void onCancelled(DatabaseError error)
             {
                 Log.w("DB", "Failed to read value.", error.toException());
+                loaded.completeExceptionally(error.toException());
             }
         });
     }
 
+    @Override
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Switch to write-behind mode: local changes apply immediately, remote
+     * ones are coalesced per key and sent as multi-path updates
+     * @param batch - flush once this many keys are pending
+     * @param window - flush at least this often (ms)
+     * @param capacity - writers block once this many keys are pending
+     * @return the buffer, for flushing and statistics
+     */
+    public WriteBehind enableWriteBehind(int batch, long window, int capacity)
+    {
+        remote.lock();
+
+        if(behind == null)
+            behind = new WriteBehind(ref::updateChildren, batch, window, capacity);
+
+        remote.unlock();
+        return behind;
+    }
+
+    /**
+     * Leave write-behind mode: whatever is pending is sent, the flusher is
+     * stopped, and later writes go out one by one again. Does nothing if
+     * write-behind is not enabled
+     */
+    public void disableWriteBehind()
+    {
+        /* Held throughout, so no write can overtake the final flush */
+        remote.lock();
+
+        try
+        {
+            if(behind != null)
+            {
+                behind.close();
+                behind = null;
+            }
+        }
+        finally
+        {
+            remote.unlock();
+        }
+    }
+
+    private void acquire(Lock l)
+    {
+        long start = System.nanoTime();
+
+        l.lock();
+        lockWait.record(System.nanoTime() - start);
+    }
+
+    /* Lock wait times (ns) for writers */
+    public Histogram getLockWait()
+    {
+        return lockWait;
+    }
+
+    /* Send (or queue) a write of key; caller holds remote */
+    private void send(String key, Object value)
+    {
+        if(behind != null)
+            behind.add(key, value);
+        else if(value == null)
+            ref.child(key).removeValue();
+        else
+            ref.child(key).setValue(value);
+    }
+
+    /* A null value removes key (on both sides) */
     @Override
     public boolean put(String key, T value)
     {
-        lock.lock();
+        if(value == null)
+            return remove(key);
 
+        acquire(lock);
         boolean result = mem.put(key, value);
-        ref.child(key).setValue(value);
 
+        /* Rejected locally (e.g. unique index): don't write it remotely either */
+        if(!result)
+        {
+            lock.unlock();
+            return false;
+        }
+
+        /* Hand over to the remote lock, so remote order matches local order */
+        acquire(remote);
         lock.unlock();
 
+        send(key, value);
+        remote.unlock();
+
         return result;
     }
 
+    /**
+     * Atomic locally; remotely, the update is sent as a plain write (the
+     * server can't compare against a local object). Use compute for
+     * updates which must not clobber other devices.
+     */
     @Override
-    public T get(String key)
+    public boolean compareAndSet(String key, T expected, T update)
     {
-        lock.lock();
-        T value = mem.get(key);
+        acquire(lock);
+
+        if(!mem.compareAndSet(key, expected, update))
+        {
+            lock.unlock();
+            return false;
+        }
+
+        acquire(remote);
         lock.unlock();
 
-        return value;
+        send(key, update);
+        remote.unlock();
+
+        return true;
     }
 
+    /**
+     * Applies fn locally (atomically) and returns that result at once;
+     * the server then re-runs fn against its own copy in a transaction,
+     * so concurrent updates from other devices are never overwritten.
+     * The server's outcome replaces the local value once it is known, so
+     * the result may yet be undone: use computeAsync to wait for it.
+     */
     @Override
-    public boolean contains(String key)
+    public T compute(String key, UnaryOperator<T> fn)
     {
-        lock.lock();
-        boolean result = mem.contains(key);
+        return transact(key, fn, new CompletableFuture<>());
+    }
+
+    /**
+     * As compute, but completes once the server transaction has: with the
+     * value fn returned in the committed run, or with the server's value
+     * if fn made no change there. Fails if the transaction does.
+     */
+    @Override
+    public CompletableFuture<T> computeAsync(String key, UnaryOperator<T> fn)
+    {
+        CompletableFuture<T> outcome = new CompletableFuture<>();
+        transact(key, fn, outcome);
+
+        return outcome;
+    }
+
+    /* Apply fn locally (returning the result), then on the server (completing outcome) */
+    private T transact(String key, UnaryOperator<T> fn, CompletableFuture<T> outcome)
+    {
+        /* What fn returned in the latest server run (the committed one, in the end) */
+        AtomicReference<T> last = new AtomicReference<>();
+
+        acquire(lock);
+        T result = mem.compute(key, fn);
+
+        acquire(remote);
         lock.unlock();
 
+        /* Buffered writes to key must not land after the transaction */
+        if(behind != null)
+            behind.flush();
+
+        ref.child(key).runTransaction(new Transaction.Handler()
+        {
+            @Override
+            public Transaction.Result doTransaction(MutableData data)
+            {
+                T current = data.getValue(type);
+                T update = fn.apply(current);
+
+                /* No change; but null may just mean nothing is cached yet */
+                if(update == current && current != null)
+                    return Transaction.abort();
+
+                last.set(update);
+
+                data.setValue(update);
+                return Transaction.success(data);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot data)
+            {
+                T value = data == null ? null : data.getValue(type);
+
+                /*
+                 * The server's copy replaces the local guess, unless key has
+                 * been written locally since (that write is newer, and has
+                 * been sent after this transaction)
+                 */
+                if(data != null)
+                {
+                    acquire(lock);
+                    mem.compareAndSet(key, result, value);
+                    lock.unlock();
+                }
+
+                if(error != null)
+                {
+                    Log.w("DB", "Failed to update " + key, error.toException());
+                    outcome.completeExceptionally(error.toException());
+                }
+                else
+                {
+                    outcome.complete(committed ? last.get() : value);
+                }
+            }
+        });
+
+        remote.unlock();
         return result;
     }
 
     @Override
-    public boolean remove(String key)
+    public T get(String key)
+    {
+        return mem.get(key);
+    }
+
+    @Override
+    public boolean contains(String key)
     {
-        lock.lock();
+        return mem.contains(key);
+    }
 
+    @Override
+    public boolean remove(String key)
+    {
+        acquire(lock);
         boolean result = mem.remove(key);
-        ref.child(key).removeValue();
 
+        acquire(remote);
         lock.unlock();
 
+        send(key, null);
+        remote.unlock();
+
         return result;
     }
 
+    /*
+     * Batches are sent as a single multi-path update, holding only what
+     * was applied locally (null values remove, as in put)
+     */
     @Override
-    public Set<KVPair<String, T>> items()
+    public boolean putAll(Map<String, T> items)
     {
-        lock.lock();
-        Set<KVPair<String, T>> items = mem.items();
+        Map<String, Object> update = new HashMap<>();
+        boolean result = true;
+
+        acquire(lock);
+
+        for(Map.Entry<String, T> entry : items.entrySet())
+        {
+            String key = entry.getKey();
+            T value = entry.getValue();
+
+            if(value == null ? mem.remove(key) || !mem.contains(key) : mem.put(key, value))
+                update.put(key, value);
+            else
+                result = false;
+        }
+
+        acquire(remote);
         lock.unlock();
 
-        return items;
+        if(behind != null)
+            update.forEach(behind::add);
+        else
+            ref.updateChildren(update);
+
+        remote.unlock();
+
+        return result;
     }
 
     @Override
-    public Set<String> keySet()
+    public boolean removeAll(Collection<String> keys)
     {
-        lock.lock();
-        Set<String> keys = mem.keySet();
+        Map<String, Object> update = new HashMap<>();
+        boolean result = true;
+
+        acquire(lock);
+
+        /* null removes the path */
+        for(String key : keys)
+        {
+            result &= mem.remove(key);
+            update.put(key, null);
+        }
+
+        acquire(remote);
         lock.unlock();
 
-        return keys;
+        if(behind != null)
+            update.forEach(behind::add);
+        else
+            ref.updateChildren(update);
+
+        remote.unlock();
+
+        return result;
     }
 
     @Override
-    public List<T> values()
+    public void forEach(BiConsumer<String, T> action)
     {
-        lock.lock();
-        List<T> values = mem.values();
-        lock.unlock();
+        mem.forEach(action);
+    }
+
+    @Override
+    public Stream<T> stream()
+    {
+        return mem.stream();
+    }
+
+    @Override
+    public void addIndex(String name, Function<T, ?> extractor, boolean unique)
+    {
+        mem.addIndex(name, extractor, unique);
+    }
 
-        return values;
+    @Override
+    public List<T> lookup(String index, Object value)
+    {
+        return mem.lookup(index, value);
+    }
+
+    @Override
+    public Snapshot<T> snapshot()
+    {
+        return mem.snapshot();
+    }
+
+    @Override
+    public Collection<T> prefixScan(String prefix)
+    {
+        return mem.prefixScan(prefix);
+    }
+
+    @Override
+    public Collection<T> range(String from, String to)
+    {
+        return mem.range(from, to);
+    }
+
+    @Override
+    public Set<KVPair<String, T>> items()
+    {
+        return mem.items();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return mem.keySet();
+    }
+
+    @Override
+    public List<T> values()
+    {
+        return mem.values();
     }
 }
@@ -0,0 +1,783 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import edu.gatech.buzzshelter.model.db.BinaryCodec;
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+
+/**
+ * Durable key-value database backed by a write-ahead log
+ *
+ * Every put/remove is appended to log.N as {length, crc32, payload} and
+ * fsync'd (concurrent writers share a single fsync). A write is logged
+ * before it is applied in memory or passed to listeners, so nothing is
+ * seen that isn't in the log; a reader may still see it before the fsync
+ * completes, but the writer's call only returns after. Values are stored
+ * with their BinaryCodec, which (unlike the CSV Encoder) keeps every
+ * field. Once the log grows past a threshold, a background compactor
+ * starts log.N+1 and writes the state at that point to snapshot.N+1 (a
+ * log holding one put per key), after which the older files are deleted.
+ *
+ * Recovery loads the newest snapshot.S and replays every log.M (M >= S)
+ * in order, stopping at the first torn or corrupt record. Other files in
+ * the directory are ignored.
+ *
+ * @param <V> value type
+ */
+public class LogDB<V> extends Database<V>
+{
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final long DEFAULT_THRESHOLD = 4 * 1024 * 1024;
+
+    private BinaryCodec<V> codec;
+    private File dir;
+    private long threshold;
+
+    private Database<V> mem = new MemDB<>();
+
+    /* Unique indexes (name -> extractor), checked before a write is logged */
+    private Map<String, Function<V, ?>> unique = new HashMap<>();
+
+    /* Current log (appends guarded by lock, fsync/close by syncLock) */
+    private volatile FileChannel log;
+    private int generation;
+
+    /* Lock for the in-memory copy and log appends */
+    private Lock lock = new ReentrantLock();
+
+    /* Group commit state (synced is guarded by syncLock) */
+    private final Object syncLock = new Object();
+    private AtomicLong written = new AtomicLong();
+    private long synced;
+
+    /* Daemon, so an unclosed database can't keep the process alive */
+    private ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "LogDB compactor");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+    private AtomicBoolean compacting = new AtomicBoolean();
+
+    public LogDB(BinaryCodec<V> codec, File dir) throws IOException
+    {
+        this(codec, dir, DEFAULT_THRESHOLD);
+    }
+
+    /* threshold is the log size (in bytes) that triggers compaction */
+    public LogDB(BinaryCodec<V> codec, File dir, long threshold) throws IOException
+    {
+        this.codec = codec;
+        this.dir = dir;
+        this.threshold = threshold;
+
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+
+        recover();
+        mem.addListener(relay());
+    }
+
+    /* Load the latest snapshot, then replay the log tail */
+    private void recover() throws IOException
+    {
+        int snapshot = -1;
+        List<Integer> logs = new ArrayList<>();
+
+        String[] names = dir.list();
+
+        for(String name : names == null ? new String[0] : names)
+        {
+            snapshot = Math.max(snapshot, generation(name, "snapshot."));
+
+            int gen = generation(name, "log.");
+
+            if(gen != -1)
+                logs.add(gen);
+        }
+
+        /* Installed by rename once complete, so never torn */
+        if(snapshot != -1)
+            replay(file("snapshot", snapshot));
+
+        Collections.sort(logs);
+        generation = Math.max(snapshot, 0);
+
+        for(int gen : logs)
+        {
+            if(gen < generation)
+                continue;
+
+            replay(file("log", gen));
+            generation = gen;
+        }
+
+        log = open(generation);
+    }
+
+    /* N, for a file named prefix + N; -1 for anything else (e.g. "snapshot.N.tmp") */
+    private static int generation(String name, String prefix)
+    {
+        if(!name.startsWith(prefix))
+            return -1;
+
+        try
+        {
+            return Math.max(Integer.parseInt(name.substring(prefix.length())), -1);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private File file(String type, int gen)
+    {
+        return new File(dir, type + "." + gen);
+    }
+
+    private FileChannel open(int gen) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile(file("log", gen), "rw").getChannel();
+        channel.position(channel.size());
+
+        return channel;
+    }
+
+    /* Apply every intact record in file, and cut off a torn tail */
+    private void replay(File file) throws IOException
+    {
+        long valid = 0, size = file.length();
+
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            while(valid + 8 <= size)
+            {
+                int length = in.readInt();
+                long crc = in.readInt() & 0xFFFFFFFFL;
+
+                /* Torn (or garbage) length */
+                if(length < 5 || valid + 8 + length > size)
+                    break;
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                if(checksum(payload) != crc)
+                    break;
+
+                apply(ByteBuffer.wrap(payload));
+                valid += 8 + payload.length;
+            }
+        }
+
+        if(valid != file.length())
+        {
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.setLength(valid);
+            }
+        }
+    }
+
+    private void apply(ByteBuffer payload)
+    {
+        byte op = payload.get(0);
+        int length = payload.getInt(1);
+
+        byte[] raw = new byte[length];
+        for(int i = 0; i < length; i++)
+            raw[i] = payload.get(5 + i);
+
+        String key = new String(raw, StandardCharsets.UTF_8);
+
+        if(op == PUT)
+        {
+            byte[] record = new byte[payload.limit() - 5 - length];
+
+            for(int i = 0; i < record.length; i++)
+                record[i] = payload.get(5 + length + i);
+
+            mem.put(key, codec.fromBytes(record));
+        }
+        else
+        {
+            mem.remove(key);
+        }
+    }
+
+    private static long checksum(byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        return crc.getValue();
+    }
+
+    /* Frame an operation as {length, crc32, op, key length, key, [record]} */
+    private ByteBuffer frame(byte op, String key, V value)
+    {
+        byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+        byte[] record = value == null ? new byte[0] : codec.toBytes(value);
+
+        byte[] payload = ByteBuffer.allocate(5 + raw.length + record.length)
+                .put(op).putInt(raw.length).put(raw).put(record).array();
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int)checksum(payload)).put(payload);
+        frame.flip();
+
+        return frame;
+    }
+
+    /* Append frame to the log, returning its commit sequence */
+    private long append(ByteBuffer frame) throws IOException
+    {
+        long start = log.position();
+
+        try
+        {
+            while(frame.hasRemaining())
+                log.write(frame);
+        }
+        catch (IOException e)
+        {
+            /* A torn frame would hide every later one from recovery */
+            log.truncate(start);
+            throw e;
+        }
+
+        return written.incrementAndGet();
+    }
+
+    /* Would mem take (key, value)? Checked before logging; caller holds lock */
+    private boolean admitted(String key, V value)
+    {
+        if(value == null)
+            return false;
+
+        V current = mem.get(key);
+
+        for(Map.Entry<String, Function<V, ?>> index : unique.entrySet())
+        {
+            Object secondary = index.getValue().apply(value);
+
+            if(secondary == null)
+                continue;
+
+            for(V other : mem.lookup(index.getKey(), secondary))
+            {
+                if(other != current)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Log a write of key (value null: remove), then apply it to mem. Caller
+     * holds lock, and has checked it is admitted; should mem refuse it
+     * anyway, it is cancelled in the log by a frame restoring the old value
+     */
+    private boolean write(String key, V value) throws IOException
+    {
+        V old = mem.get(key);
+        append(frame(value == null ? REMOVE : PUT, key, value));
+
+        if(value == null ? mem.remove(key) : mem.put(key, value))
+            return true;
+
+        append(frame(old == null ? REMOVE : PUT, key, old));
+        return false;
+    }
+
+    /* Wait until seq is durable; one fsync covers every pending writer */
+    private boolean commit(long seq)
+    {
+        synchronized(syncLock)
+        {
+            if(synced >= seq)
+                return true;
+
+            try
+            {
+                long target = written.get();
+                log.force(false);
+                synced = target;
+
+                if(log.size() >= threshold && compacting.compareAndSet(false, true))
+                    compactor.execute(this::compact);
+            }
+            catch (IOException e)
+            {
+                Log.w("DB", "Failed to sync the log", e);
+                return false;
+            }
+            catch (RejectedExecutionException e)
+            {
+                /* Closing; the next open recovers from the log instead */
+                compacting.set(false);
+            }
+        }
+
+        return true;
+    }
+
+    /* Roll the log and write a snapshot of the state at that point */
+    private void compact()
+    {
+        try
+        {
+            List<ByteBuffer> frames = new ArrayList<>();
+            int gen;
+
+            lock.lock();
+
+            try
+            {
+                /* Encoded now, since values may be changed in place later */
+                for(KVPair<String, V> item : mem.items())
+                    frames.add(frame(PUT, item.getKey(), item.getValue()));
+
+                /* Everything so far must be durable before switching logs */
+                synchronized(syncLock)
+                {
+                    log.force(false);
+                    synced = written.get();
+
+                    log.close();
+                    gen = ++generation;
+                    log = open(gen);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            File tmp = new File(dir, "snapshot." + gen + ".tmp");
+
+            /* Durable before it's installed */
+            try(FileOutputStream out = new FileOutputStream(tmp))
+            {
+                FileChannel channel = out.getChannel();
+
+                for(ByteBuffer frame : frames)
+                {
+                    while(frame.hasRemaining())
+                        channel.write(frame);
+                }
+
+                channel.force(true);
+            }
+
+            if(!tmp.renameTo(file("snapshot", gen)))
+                throw new IOException("Could not install snapshot." + gen);
+
+            /* Older files are now redundant */
+            for(int old = gen - 1; old >= 0; old--)
+            {
+                File snapshot = file("snapshot", old), log = file("log", old);
+
+                if(!snapshot.exists() && !log.exists())
+                    break;
+
+                snapshot.delete();
+                log.delete();
+            }
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Compaction failed", e);
+        }
+        finally
+        {
+            compacting.set(false);
+        }
+    }
+
+    /* Flush pending work (including a running compaction) and release the log */
+    public void close() throws IOException
+    {
+        compactor.shutdown();
+
+        try
+        {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+
+        try
+        {
+            synchronized(syncLock)
+            {
+                log.force(false);
+                log.close();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        boolean result;
+        long seq;
+
+        lock.lock();
+
+        try
+        {
+            /* Rejected (unique index); nothing to log */
+            if(!admitted(key, value))
+                return false;
+
+            result = write(key, value);
+            seq = written.get();
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Failed to log put of " + key, e);
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        /* Wait on the fsync outside of the lock */
+        return commit(seq) && result;
+    }
+
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        boolean result;
+        long seq;
+
+        lock.lock();
+
+        try
+        {
+            if(mem.get(key) != expected)
+                return false;
+
+            if(update == null)
+            {
+                if(expected == null)
+                    return true;
+
+                result = write(key, null);
+            }
+            else
+            {
+                if(!admitted(key, update))
+                    return false;
+
+                result = write(key, update);
+            }
+
+            seq = written.get();
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Failed to log update of " + key, e);
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return commit(seq) && result;
+    }
+
+    /* Batches share a single fsync */
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        boolean result = true;
+        long seq;
+
+        lock.lock();
+
+        try
+        {
+            for(Map.Entry<String, V> entry : items.entrySet())
+            {
+                if(!admitted(entry.getKey(), entry.getValue())
+                        || !write(entry.getKey(), entry.getValue()))
+                    result = false;
+            }
+
+            seq = written.get();
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Failed to log batch", e);
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return commit(seq) && result;
+    }
+
+    @Override
+    public boolean removeAll(Collection<String> keys)
+    {
+        boolean result = true;
+        long seq;
+
+        lock.lock();
+
+        try
+        {
+            for(String key : keys)
+            {
+                if(!mem.contains(key) || !write(key, null))
+                    result = false;
+            }
+
+            seq = written.get();
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Failed to log batch", e);
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return commit(seq) && result;
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        lock.lock();
+
+        try
+        {
+            mem.addIndex(name, extractor, unique);
+
+            if(unique)
+                this.unique.put(name, extractor);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.lookup(index, value);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.snapshot();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<V> prefixScan(String prefix)
+    {
+        lock.lock();
+
+        try
+        {
+            return new ArrayList<>(mem.prefixScan(prefix));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<V> range(String from, String to)
+    {
+        lock.lock();
+
+        try
+        {
+            return new ArrayList<>(mem.range(from, to));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V get(String key)
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.get(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.contains(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        boolean result;
+        long seq;
+
+        lock.lock();
+
+        try
+        {
+            if(!mem.contains(key))
+                return false;
+
+            result = write(key, null);
+            seq = written.get();
+        }
+        catch (IOException e)
+        {
+            Log.w("DB", "Failed to log remove of " + key, e);
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return commit(seq) && result;
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.items();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        lock.lock();
+
+        try
+        {
+            return new HashSet<>(mem.keySet());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<V> values()
+    {
+        lock.lock();
+
+        try
+        {
+            return mem.values();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -5,7 +5,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import edu.gatech.buzzshelter.model.db.Database;
 import edu.gatech.buzzshelter.model.db.KVPair;
@@ -21,7 +23,12 @@ public class MemDB<V> extends Database<V>
     @Override
     public boolean put(String key, V value)
     {
-        db.put(key, value);
+        if(!admits(key, value))
+            return false;
+
+        reindex(key, db.put(key, value), value);
+        changed(key, value);
+
         return true;
     }
 
@@ -40,7 +47,37 @@ public class MemDB<V> extends Database<V>
     @Override
     public boolean remove(String key)
     {
-        return db.remove(key) != null;
+        V old = db.remove(key);
+
+        if(old == null)
+            return false;
+
+        reindex(key, old, null);
+        changed(key, null);
+
+        return true;
+    }
+
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        if(isIndexed() || isObserved())
+            return super.putAll(items);
+
+        db.putAll(items);
+        return true;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        db.forEach(action);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return db.values().stream();
     }
 
     @Override
@@ -0,0 +1,376 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+import edu.gatech.buzzshelter.model.db.util.Histogram;
+
+/**
+ * Instrumentation decorator for any database
+ *
+ * Records a latency histogram (ns) and a payload histogram (number of
+ * entries read or written) for every operation, so backends can be
+ * compared under the same load. stream() is lazy, so it is not timed.
+ * Time spent waiting on the backend's own locks can't be seen from here,
+ * so a backend which measures it (e.g. FirebaseDB.getLockWait()) can hand
+ * its histogram over, to be reported alongside.
+ *
+ * @param <V> value type
+ */
+public class MeteredDB<V> extends Database<V>
+{
+    public enum Op
+    {
+        PUT, GET, CONTAINS, REMOVE, ITEMS, KEYSET, VALUES,
+        PUT_ALL, REMOVE_ALL, GET_ALL, FOR_EACH, SCAN, COMPARE_AND_SET, COMPUTE
+    }
+
+    private String name;
+    private Database<V> backend;
+
+    private Map<Op, Histogram> latency = new EnumMap<>(Op.class);
+    private Map<Op, Histogram> payload = new EnumMap<>(Op.class);
+
+    /* Backend's lock wait times (ns), if it records them */
+    private Histogram lockWait;
+
+    private volatile long started = System.nanoTime();
+
+    /* name labels the backend in exports */
+    public MeteredDB(String name, Database<V> backend)
+    {
+        this(name, backend, null);
+    }
+
+    /**
+     * Meter backend, reporting its lock waits as well
+     * @param name - labels the backend in exports
+     * @param backend - database to meter
+     * @param lockWait - lock wait times (ns) recorded by backend, or null
+     */
+    public MeteredDB(String name, Database<V> backend, Histogram lockWait)
+    {
+        this.name = name;
+        this.backend = backend;
+        this.lockWait = lockWait;
+
+        for(Op op : Op.values())
+        {
+            latency.put(op, new Histogram());
+            payload.put(op, new Histogram());
+        }
+    }
+
+    private void record(Op op, long start, int size)
+    {
+        latency.get(op).record(System.nanoTime() - start);
+        payload.get(op).record(size);
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.put(key, value);
+
+        record(Op.PUT, start, 1);
+        return result;
+    }
+
+    @Override
+    public V get(String key)
+    {
+        long start = System.nanoTime();
+        V value = backend.get(key);
+
+        record(Op.GET, start, value == null ? 0 : 1);
+        return value;
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.contains(key);
+
+        record(Op.CONTAINS, start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.remove(key);
+
+        record(Op.REMOVE, start, result ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.compareAndSet(key, expected, update);
+
+        record(Op.COMPARE_AND_SET, start, result ? 1 : 0);
+        return result;
+    }
+
+    /* Forwarded, so the backend's own compute (e.g. a server transaction) runs */
+    @Override
+    public V compute(String key, UnaryOperator<V> fn)
+    {
+        long start = System.nanoTime();
+        V result = backend.compute(key, fn);
+
+        record(Op.COMPUTE, start, 1);
+        return result;
+    }
+
+    /* Timed until the backend has started the update, not until it completes */
+    @Override
+    public CompletableFuture<V> computeAsync(String key, UnaryOperator<V> fn)
+    {
+        long start = System.nanoTime();
+        CompletableFuture<V> result = backend.computeAsync(key, fn);
+
+        record(Op.COMPUTE, start, 1);
+        return result;
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        long start = System.nanoTime();
+        Set<KVPair<String, V>> items = backend.items();
+
+        record(Op.ITEMS, start, items.size());
+        return items;
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        long start = System.nanoTime();
+        Set<String> keys = backend.keySet();
+
+        record(Op.KEYSET, start, keys.size());
+        return keys;
+    }
+
+    @Override
+    public List<V> values()
+    {
+        long start = System.nanoTime();
+        List<V> values = backend.values();
+
+        record(Op.VALUES, start, values.size());
+        return values;
+    }
+
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.putAll(items);
+
+        record(Op.PUT_ALL, start, items.size());
+        return result;
+    }
+
+    @Override
+    public boolean removeAll(Collection<String> keys)
+    {
+        long start = System.nanoTime();
+        boolean result = backend.removeAll(keys);
+
+        record(Op.REMOVE_ALL, start, keys.size());
+        return result;
+    }
+
+    @Override
+    public Map<String, V> getAll(Collection<String> keys)
+    {
+        long start = System.nanoTime();
+        Map<String, V> result = backend.getAll(keys);
+
+        record(Op.GET_ALL, start, result.size());
+        return result;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        int[] size = new int[1];
+        long start = System.nanoTime();
+
+        backend.forEach((k, v) -> {
+            size[0]++;
+            action.accept(k, v);
+        });
+
+        record(Op.FOR_EACH, start, size[0]);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return backend.stream();
+    }
+
+    @Override
+    public List<V> scan(Predicate<V> pred, int limit)
+    {
+        long start = System.nanoTime();
+        List<V> result = backend.scan(pred, limit);
+
+        record(Op.SCAN, start, result.size());
+        return result;
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        backend.addIndex(name, extractor, unique);
+    }
+
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        return backend.lookup(index, value);
+    }
+
+    @Override
+    public void addListener(DatabaseListener<V> listener)
+    {
+        backend.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(DatabaseListener<V> listener)
+    {
+        backend.removeListener(listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return backend.whenLoaded();
+    }
+
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        return backend.snapshot();
+    }
+
+    @Override
+    public Collection<V> prefixScan(String prefix)
+    {
+        return backend.prefixScan(prefix);
+    }
+
+    @Override
+    public Collection<V> range(String from, String to)
+    {
+        return backend.range(from, to);
+    }
+
+    /* Latency histogram (ns) for op */
+    public Histogram getLatency(Op op)
+    {
+        return latency.get(op);
+    }
+
+    /* Payload histogram (entries) for op */
+    public Histogram getPayload(Op op)
+    {
+        return payload.get(op);
+    }
+
+    /* Backend's lock wait histogram (ns), or null if it wasn't given one */
+    public Histogram getLockWait()
+    {
+        return lockWait;
+    }
+
+    /* Operations per second for op, since creation (or the last reset) */
+    public double getThroughput(Op op)
+    {
+        return rate(latency.get(op));
+    }
+
+    /* Events per second recorded in h, since creation (or the last reset) */
+    private double rate(Histogram h)
+    {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return seconds <= 0 ? 0 : h.getCount() / seconds;
+    }
+
+    public void reset()
+    {
+        for(Op op : Op.values())
+        {
+            latency.get(op).reset();
+            payload.get(op).reset();
+        }
+
+        if(lockWait != null)
+            lockWait.reset();
+
+        started = System.nanoTime();
+    }
+
+    /**
+     * Export every operation which has been used, one CSV line each:
+     * backend,op,count,ops/s,p50,p90,p99,p99.9,max (ns),mean payload
+     * followed by a LOCK_WAIT line (per lock taken, no payload) if the
+     * backend's lock waits were given
+     * @return the exported lines (with a header)
+     */
+    public String export()
+    {
+        StringBuilder out = new StringBuilder(
+                "backend,op,count,ops_per_sec,p50_ns,p90_ns,p99_ns,p999_ns,max_ns,mean_payload\n");
+
+        for(Op op : Op.values())
+        {
+            if(latency.get(op).getCount() != 0)
+                line(out, op.toString(), latency.get(op), payload.get(op).getMean());
+        }
+
+        if(lockWait != null && lockWait.getCount() != 0)
+            line(out, "LOCK_WAIT", lockWait, 0);
+
+        return out.toString();
+    }
+
+    private void line(StringBuilder out, String op, Histogram lat, double meanPayload)
+    {
+        out.append(name).append(',').append(op).append(',')
+                .append(lat.getCount()).append(',')
+                .append(String.format(Locale.US, "%.1f", rate(lat))).append(',')
+                .append(lat.getPercentile(50)).append(',')
+                .append(lat.getPercentile(90)).append(',')
+                .append(lat.getPercentile(99)).append(',')
+                .append(lat.getPercentile(99.9)).append(',')
+                .append(lat.getMax()).append(',')
+                .append(String.format(Locale.US, "%.1f", meanPayload))
+                .append('\n');
+    }
+}
@@ -0,0 +1,508 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+
+/**
+ * Thread-safe in-memory database, kept sorted by (case-folded) key
+ *
+ * Point operations cost O(log n); prefixScan and range return live views
+ * in O(log n), and walking them costs O(k). Reads never lock; writes are
+ * serialized, so secondary indexes see them in order. Null values are
+ * not supported.
+ *
+ * Snapshots are MVCC: every write gets the next version number and links
+ * to the version it replaces, and a snapshot reads, per key, the newest
+ * version no later than its own. Taking one is O(1) and copies nothing;
+ * old versions are only kept while an open snapshot may still need them.
+ *
+ * @param <V> value type
+ */
+public class OrderedDB<V> extends Database<V>
+{
+    /* Newest version of each key, keyed by normalize(key) */
+    private ConcurrentSkipListMap<String, Version<V>> db =
+            new ConcurrentSkipListMap<>();
+
+    private Lock lock = new ReentrantLock();
+
+    /* Version of the last write (only advanced under lock) */
+    private volatile long clock;
+
+    /* Open snapshots: version -> count (guarded by lock) */
+    private TreeMap<Long, Integer> readers = new TreeMap<>();
+
+    /* Normalized keys holding versions kept for snapshots (guarded by lock) */
+    private Set<String> garbage = new HashSet<>();
+
+    /* One version of a key; value is null once removed (a tombstone) */
+    private static final class Version<V>
+    {
+        final String key;
+        final V value;
+        final long version;
+
+        /* The version this one replaced (or null) */
+        volatile Version<V> prev;
+
+        Version(String key, V value, long version, Version<V> prev)
+        {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.prev = prev;
+        }
+    }
+
+    /* Value of the newest version no later than at (null: absent) */
+    private static <V> V visible(Version<V> head, long at)
+    {
+        while(head != null && head.version > at)
+            head = head.prev;
+
+        return head == null ? null : head.value;
+    }
+
+    /* Caller holds lock: drop versions no open snapshot can read */
+    private boolean prune(Version<V> head)
+    {
+        long oldest = readers.isEmpty() ? Long.MAX_VALUE : readers.firstKey();
+
+        /* Keep everything newer than the oldest reader, and the one it reads */
+        Version<V> keep = head;
+
+        while(keep.version > oldest && keep.prev != null)
+            keep = keep.prev;
+
+        keep.prev = null;
+
+        /* Still holding old versions for someone? */
+        return head.prev != null;
+    }
+
+    /* Caller holds lock: install a new version of key (value null: remove) */
+    private V write(String key, V value)
+    {
+        String norm = normalize(key);
+        Version<V> head = db.get(norm);
+        V old = head == null ? null : head.value;
+
+        if(value == null && old == null)
+            return null;
+
+        long version = clock + 1;
+        Version<V> next = new Version<>(key, value, version, head);
+        boolean kept = prune(next);
+
+        /* A tombstone with nothing under it reads the same as no entry */
+        if(value == null && !kept)
+            db.remove(norm);
+        else
+            db.put(norm, next);
+
+        if(kept)
+            garbage.add(norm);
+        else
+            garbage.remove(norm);
+
+        /* Published last, so snapshots never see half a write */
+        clock = version;
+        return old;
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        if(value == null)
+            return false;
+
+        lock.lock();
+
+        try
+        {
+            if(!admits(key, value))
+                return false;
+
+            reindex(key, write(key, value), value);
+
+            /* Under the lock, so listeners see writes in order */
+            changed(key, value);
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Writes are serialized anyway, so check and write under the lock */
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        lock.lock();
+
+        try
+        {
+            if(get(key) != expected)
+                return false;
+
+            if(update == null)
+                return expected == null || remove(key);
+
+            return put(key, update);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V get(String key)
+    {
+        return visible(db.get(normalize(key)), Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        lock.lock();
+
+        try
+        {
+            V old = write(key, null);
+
+            if(old == null)
+                return false;
+
+            reindex(key, old, null);
+            changed(key, null);
+
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<V> prefixScan(String prefix)
+    {
+        return prefixScan(prefix, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<V> range(String from, String to)
+    {
+        return range(from, to, Long.MAX_VALUE);
+    }
+
+    private Collection<V> prefixScan(String prefix, long at)
+    {
+        String lower = prefix.toLowerCase();
+
+        /* Every key with this prefix sorts in [lower, lower + U+FFFF) */
+        return values(db.subMap(lower, lower + Character.MAX_VALUE).values(), at);
+    }
+
+    private Collection<V> range(String from, String to, long at)
+    {
+        String lo = from.toLowerCase(), hi = to.toLowerCase();
+
+        /* Empty, like the default (subMap would throw) */
+        if(lo.compareTo(hi) > 0)
+            return Collections.emptyList();
+
+        return values(db.subMap(lo, hi).values(), at);
+    }
+
+    /* Lazy view of the values in versions visible at `at` */
+    private static <V> Collection<V> values(Collection<Version<V>> versions, long at)
+    {
+        return new AbstractCollection<V>()
+        {
+            @Override
+            public Iterator<V> iterator()
+            {
+                Iterator<Version<V>> it = versions.iterator();
+
+                return new Iterator<V>()
+                {
+                    private V next = advance();
+
+                    private V advance()
+                    {
+                        while(it.hasNext())
+                        {
+                            V value = visible(it.next(), at);
+
+                            if(value != null)
+                                return value;
+                        }
+
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next != null;
+                    }
+
+                    @Override
+                    public V next()
+                    {
+                        if(next == null)
+                            throw new NoSuchElementException();
+
+                        V value = next;
+                        next = advance();
+
+                        return value;
+                    }
+                };
+            }
+
+            /* O(k), since removed keys may still be in the map */
+            @Override
+            public int size()
+            {
+                int size = 0;
+
+                for(Iterator<V> it = iterator(); it.hasNext(); it.next())
+                    size++;
+
+                return size;
+            }
+        };
+    }
+
+    private void forEach(BiConsumer<String, V> action, long at)
+    {
+        for(Version<V> head : db.values())
+        {
+            V value = visible(head, at);
+
+            if(value != null)
+                action.accept(head.key, value);
+        }
+    }
+
+    private Stream<V> stream(long at)
+    {
+        return db.values().stream().map(head -> visible(head, at)).filter(Objects::nonNull);
+    }
+
+    private Set<KVPair<String, V>> items(long at)
+    {
+        Set<KVPair<String, V>> items = new HashSet<>();
+        forEach((key, value) -> items.add(new KVPair<>(key, value)), at);
+
+        return items;
+    }
+
+    private Set<String> keySet(long at)
+    {
+        Set<String> keys = new HashSet<>();
+        forEach((key, value) -> keys.add(key), at);
+
+        return keys;
+    }
+
+    private List<V> values(long at)
+    {
+        List<V> values = new ArrayList<>(db.size());
+        forEach((key, value) -> values.add(value), at);
+
+        return values;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        forEach(action, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return stream(Long.MAX_VALUE);
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        return items(Long.MAX_VALUE);
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return keySet(Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<V> values()
+    {
+        return values(Long.MAX_VALUE);
+    }
+
+    /* O(1): just pins the current version */
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        lock.lock();
+
+        try
+        {
+            long at = clock;
+            readers.merge(at, 1, Integer::sum);
+
+            return new VersionSnapshot(at);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Unpin at, and drop whatever only older snapshots needed */
+    private void release(long at)
+    {
+        lock.lock();
+
+        try
+        {
+            long oldest = readers.firstKey();
+
+            if(readers.merge(at, -1, Integer::sum) == 0)
+                readers.remove(at);
+
+            if(!readers.isEmpty() && readers.firstKey() == oldest)
+                return;
+
+            Iterator<String> it = garbage.iterator();
+
+            while(it.hasNext())
+            {
+                String norm = it.next();
+                Version<V> head = db.get(norm);
+
+                if(head != null && prune(head))
+                    continue;
+
+                /* A tombstone nobody can see past any more */
+                if(head != null && head.value == null)
+                    db.remove(norm);
+
+                it.remove();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* View of the db as of version `at` */
+    private class VersionSnapshot extends Snapshot<V>
+    {
+        private final long at;
+        private boolean closed;
+
+        VersionSnapshot(long at)
+        {
+            super(OrderedDB.this);
+            this.at = at;
+        }
+
+        @Override
+        public V get(String key)
+        {
+            return visible(db.get(normalize(key)), at);
+        }
+
+        @Override
+        public boolean contains(String key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<KVPair<String, V>> items()
+        {
+            return OrderedDB.this.items(at);
+        }
+
+        @Override
+        public Set<String> keySet()
+        {
+            return OrderedDB.this.keySet(at);
+        }
+
+        @Override
+        public List<V> values()
+        {
+            return OrderedDB.this.values(at);
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, V> action)
+        {
+            OrderedDB.this.forEach(action, at);
+        }
+
+        @Override
+        public Stream<V> stream()
+        {
+            return OrderedDB.this.stream(at);
+        }
+
+        @Override
+        public Collection<V> prefixScan(String prefix)
+        {
+            return OrderedDB.this.prefixScan(prefix, at);
+        }
+
+        @Override
+        public Collection<V> range(String from, String to)
+        {
+            return OrderedDB.this.range(from, to, at);
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if(closed)
+                return;
+
+            closed = true;
+            release(at);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.KVPair;
+import edu.gatech.buzzshelter.model.db.Snapshot;
+
+/**
+ * Hash-partitioned database, spreading keys over N independent backends
+ *
+ * Each partition has its own read-write lock (so backends need not be
+ * thread-safe, e.g. MemDB), and writers to different partitions never
+ * contend. Whole-db reads (keySet, values, items) fan out to every
+ * partition in parallel and merge the results; bulk writes are grouped
+ * per partition and applied in parallel.
+ *
+ * Unique indexes can't be enforced across partitions, so only
+ * non-unique ones are supported.
+ *
+ * @param <V> value type
+ */
+public class ShardedDB<V> extends Database<V>
+{
+    private static final class Shard<V>
+    {
+        final Database<V> db;
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Shard(Database<V> db)
+        {
+            this.db = db;
+        }
+
+        <R> R read(Function<Database<V>, R> op)
+        {
+            lock.readLock().lock();
+
+            try
+            {
+                return op.apply(db);
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+        <R> R write(Function<Database<V>, R> op)
+        {
+            lock.writeLock().lock();
+
+            try
+            {
+                return op.apply(db);
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Shard<V>[] shards;
+
+    /**
+     * Create a database of `partitions` backends
+     * @param partitions - number of partitions (e.g. the number of cores)
+     * @param factory - creates each (empty) backend
+     */
+    public ShardedDB(int partitions, Supplier<Database<V>> factory)
+    {
+        if(partitions < 1)
+            throw new IllegalArgumentException("partitions must be positive");
+
+        /* Generic array; only ever holds Shard<V> */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Shard<V>[] array = new Shard[partitions];
+        shards = array;
+
+        for(int i = 0; i < partitions; i++)
+        {
+            shards[i] = new Shard<>(factory.get());
+            shards[i].db.addListener(relay());
+        }
+    }
+
+    public int getPartitions()
+    {
+        return shards.length;
+    }
+
+    private Shard<V> shard(String key)
+    {
+        int h = key.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    /* Run op on every partition (under its read lock) in parallel */
+    private <R> List<R> fanOut(Function<Database<V>, R> op)
+    {
+        return Arrays.stream(shards).parallel().map(shard -> shard.read(op))
+                .collect(Collectors.toList());
+    }
+
+    /* Split keys by partition */
+    private <T> Map<Shard<V>, List<T>> group(Collection<T> items, Function<T, String> key)
+    {
+        Map<Shard<V>, List<T>> groups = new HashMap<>();
+
+        for(T item : items)
+            groups.computeIfAbsent(shard(key.apply(item)), s -> new ArrayList<>()).add(item);
+
+        return groups;
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        return shard(key).write(db -> db.put(key, value));
+    }
+
+    @Override
+    public V get(String key)
+    {
+        return shard(key).read(db -> db.get(key));
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        return shard(key).read(db -> db.contains(key));
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        return shard(key).write(db -> db.remove(key));
+    }
+
+    @Override
+    public boolean compareAndSet(String key, V expected, V update)
+    {
+        return shard(key).write(db -> db.compareAndSet(key, expected, update));
+    }
+
+    @Override
+    public V compute(String key, UnaryOperator<V> fn)
+    {
+        return shard(key).write(db -> db.compute(key, fn));
+    }
+
+    @Override
+    public boolean putAll(Map<String, V> items)
+    {
+        return group(items.entrySet(), Map.Entry::getKey).entrySet().parallelStream()
+                .map(group -> group.getKey().write(db -> {
+                    Map<String, V> part = new HashMap<>();
+
+                    for(Map.Entry<String, V> entry : group.getValue())
+                        part.put(entry.getKey(), entry.getValue());
+
+                    return db.putAll(part);
+                }))
+                .reduce(true, (x, y) -> x && y);
+    }
+
+    @Override
+    public boolean removeAll(Collection<String> keys)
+    {
+        return group(keys, key -> key).entrySet().parallelStream()
+                .map(group -> group.getKey().write(db -> db.removeAll(group.getValue())))
+                .reduce(true, (x, y) -> x && y);
+    }
+
+    @Override
+    public Map<String, V> getAll(Collection<String> keys)
+    {
+        Map<String, V> result = new HashMap<>();
+
+        group(keys, key -> key).entrySet().parallelStream()
+                .map(group -> group.getKey().read(db -> db.getAll(group.getValue())))
+                .collect(Collectors.toList())
+                .forEach(result::putAll);
+
+        return result;
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        Set<KVPair<String, V>> items = new HashSet<>();
+        fanOut(Database::items).forEach(items::addAll);
+
+        return items;
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        /* Copy each part under its lock (backends may return live views) */
+        Set<String> keys = new HashSet<>();
+        fanOut(db -> new ArrayList<>(db.keySet())).forEach(keys::addAll);
+
+        return keys;
+    }
+
+    @Override
+    public List<V> values()
+    {
+        List<V> values = new ArrayList<>();
+        fanOut(Database::values).forEach(values::addAll);
+
+        return values;
+    }
+
+    /*
+     * One partition at a time, since action need not be thread-safe. Each
+     * is copied under its read lock and action runs on the copy, so it
+     * may write back to this db (which would deadlock under the lock).
+     */
+    @Override
+    public void forEach(BiConsumer<String, V> action)
+    {
+        for(Shard<V> shard : shards)
+        {
+            List<KVPair<String, V>> items = shard.read(db -> {
+                List<KVPair<String, V>> copy = new ArrayList<>();
+                db.forEach((key, value) -> copy.add(new KVPair<>(key, value)));
+
+                return copy;
+            });
+
+            for(KVPair<String, V> item : items)
+                action.accept(item.getKey(), item.getValue());
+        }
+    }
+
+    @Override
+    public Stream<V> stream()
+    {
+        return Arrays.stream(shards).flatMap(shard -> shard.read(Database::values).stream());
+    }
+
+    @Override
+    public void addIndex(String name, Function<V, ?> extractor, boolean unique)
+    {
+        if(unique)
+            throw new UnsupportedOperationException("Unique indexes can't span partitions");
+
+        for(Shard<V> shard : shards)
+        {
+            shard.write(db -> {
+                db.addIndex(name, extractor, false);
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public List<V> lookup(String index, Object value)
+    {
+        List<V> result = new ArrayList<>();
+        fanOut(db -> db.lookup(index, value)).forEach(result::addAll);
+
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return CompletableFuture.allOf(Arrays.stream(shards)
+                .map(shard -> shard.db.whenLoaded()).toArray(CompletableFuture[]::new));
+    }
+
+    /* Consistent across partitions: every partition is paused at once */
+    @Override
+    public Snapshot<V> snapshot()
+    {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Snapshot<V>[] parts = new Snapshot[shards.length];
+
+        /* Always in the same order, and single-key writers hold one at most */
+        for(Shard<V> shard : shards)
+            shard.lock.writeLock().lock();
+
+        try
+        {
+            for(int i = 0; i < shards.length; i++)
+                parts[i] = shards[i].db.snapshot();
+        }
+        finally
+        {
+            for(Shard<V> shard : shards)
+                shard.lock.writeLock().unlock();
+        }
+
+        return new ShardedSnapshot(parts);
+    }
+
+    private class ShardedSnapshot extends Snapshot<V>
+    {
+        private final Snapshot<V>[] parts;
+
+        ShardedSnapshot(Snapshot<V>[] parts)
+        {
+            super(ShardedDB.this);
+            this.parts = parts;
+        }
+
+        private Snapshot<V> part(String key)
+        {
+            int h = key.hashCode();
+            return parts[Math.floorMod(h ^ (h >>> 16), parts.length)];
+        }
+
+        @Override
+        public V get(String key)
+        {
+            return part(key).get(key);
+        }
+
+        @Override
+        public boolean contains(String key)
+        {
+            return part(key).contains(key);
+        }
+
+        @Override
+        public Set<KVPair<String, V>> items()
+        {
+            return Arrays.stream(parts).parallel().flatMap(part -> part.items().stream())
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<String> keySet()
+        {
+            return Arrays.stream(parts).parallel().flatMap(part -> part.keySet().stream())
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public List<V> values()
+        {
+            return Arrays.stream(parts).parallel().flatMap(part -> part.values().stream())
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, V> action)
+        {
+            for(Snapshot<V> part : parts)
+                part.forEach(action);
+        }
+
+        @Override
+        public Stream<V> stream()
+        {
+            return Arrays.stream(parts).flatMap(Database::stream);
+        }
+
+        @Override
+        public List<V> lookup(String index, Object value)
+        {
+            List<V> result = new ArrayList<>();
+
+            for(Snapshot<V> part : parts)
+                result.addAll(part.lookup(index, value));
+
+            return result;
+        }
+
+        @Override
+        public void close()
+        {
+            for(Snapshot<V> part : parts)
+                part.close();
+        }
+    }
+}
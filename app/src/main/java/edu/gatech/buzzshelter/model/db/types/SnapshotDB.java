@@ -0,0 +1,551 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.Encoder;
+import edu.gatech.buzzshelter.model.db.KVPair;
+
+/**
+ * Read-mostly database served from a memory-mapped binary snapshot
+ *
+ * Layout (big-endian):
+ *   header    - magic, version, count, and the offsets of each section
+ *   key table - count x {key offset, key length, record offset, id},
+ *               sorted by the UTF-8 bytes of the key
+ *   id table  - count x {id, key table slot}, sorted by id
+ *   keys      - UTF-8 key bytes
+ *   records   - field count, then a type byte and value per field:
+ *               null, int (4 bytes), double (8 bytes), or text
+ *               ({length, UTF-8 bytes})
+ *
+ * The Encoder works on text fields, so numbers are only stored fixed-width
+ * when their text round-trips exactly (otherwise they are kept as text).
+ *
+ * Records are only decoded (via the Encoder) when touched, and recently
+ * decoded ones are kept in a small LRU cache; puts and removes made after
+ * the snapshot was taken live in an in-memory overlay.
+ *
+ * Any number of threads may read at once (the cache is synchronized), but
+ * puts and removes must not run alongside other calls, as the overlay is
+ * not thread-safe.
+ *
+ * @param <V> value type
+ */
+public class SnapshotDB<V> extends Database<V>
+{
+    private static final int MAGIC = 0x425A534E; /* "BZSN" */
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int KEY_ENTRY = 16;
+    private static final int ID_ENTRY = 8;
+
+    /* Field types in a record */
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte TEXT = 3;
+
+    /* Decoded records kept around */
+    private static final int CACHE_SIZE = 256;
+
+    private Encoder<V> encoder;
+    private ByteBuffer map;
+
+    private int count, keyTable, idTable;
+
+    /* Written entries, and removed snapshot keys */
+    private Database<V> overlay = new MemDB<>();
+    private Set<String> removed = new HashSet<>();
+
+    /* Recently decoded snapshot records (least recently used go first) */
+    private Map<String, V> cache = new LinkedHashMap<String, V>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public SnapshotDB(Encoder<V> encoder, File file) throws IOException
+    {
+        this.encoder = encoder;
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+
+            if(channel.size() < HEADER_SIZE)
+                throw new IOException("Not a snapshot (too short): " + file);
+
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+            throw new IOException("Not a snapshot (or unsupported version): " + file);
+
+        count = map.getInt(8);
+        keyTable = map.getInt(12);
+        idTable = map.getInt(16);
+
+        int keyData = map.getInt(20), recordData = map.getInt(24);
+
+        /* Sections must be laid out as write() does, and fit in the file */
+        if(count < 0 || keyTable != HEADER_SIZE
+                || (long)idTable != keyTable + (long)count * KEY_ENTRY
+                || (long)keyData != idTable + (long)count * ID_ENTRY
+                || recordData < keyData || recordData > map.limit())
+            throw new IOException("Corrupt snapshot header: " + file);
+    }
+
+    /**
+     * Write a snapshot of src to file, without numeric ids
+     * @param src - database to snapshot
+     * @param encoder - encoder used to split values into fields
+     * @param file - destination
+     */
+    public static <V> void write(Database<V> src, Encoder<V> encoder, File file)
+            throws IOException
+    {
+        write(src, encoder, x -> 0, file);
+    }
+
+    /**
+     * Write a snapshot of src to file
+     * @param src - database to snapshot
+     * @param encoder - encoder used to split values into fields
+     * @param id - numeric id of each value (secondary lookup key)
+     * @param file - destination
+     */
+    public static <V> void write(Database<V> src, Encoder<V> encoder,
+                                 ToIntFunction<V> id, File file) throws IOException
+    {
+        List<KVPair<String, V>> items = new ArrayList<>(src.items());
+        int n = items.size();
+
+        byte[][] keys = new byte[n][];
+        byte[][] records = new byte[n][];
+        int[] ids = new int[n];
+        Integer[] order = new Integer[n];
+
+        for(int i = 0; i < n; i++)
+        {
+            V value = items.get(i).getValue();
+
+            keys[i] = items.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+            records[i] = record(encoder.decode(value));
+            ids[i] = id.applyAsInt(value);
+            order[i] = i;
+        }
+
+        /* Key table is sorted so lookups can binary search it */
+        Arrays.sort(order, (x, y) -> compare(keys[x], keys[y]));
+
+        Integer[] byId = new Integer[n];
+        for(int i = 0; i < n; i++)
+            byId[i] = i;
+
+        Arrays.sort(byId, (x, y) -> Integer.compare(ids[order[x]], ids[order[y]]));
+
+        /* Compute section offsets */
+        int keyTable = HEADER_SIZE;
+        int idTable = keyTable + n * KEY_ENTRY;
+        int keyData = idTable + n * ID_ENTRY;
+        int recordData = keyData;
+
+        for(byte[] key : keys)
+            recordData += key.length;
+
+        FileOutputStream stream = new FileOutputStream(file);
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(keyTable);
+            out.writeInt(idTable);
+            out.writeInt(keyData);
+            out.writeInt(recordData);
+            out.writeInt(0);
+
+            int keyPos = keyData, recordPos = recordData;
+
+            for(int slot : order)
+            {
+                out.writeInt(keyPos);
+                out.writeInt(keys[slot].length);
+                out.writeInt(recordPos);
+                out.writeInt(ids[slot]);
+
+                keyPos += keys[slot].length;
+                recordPos += records[slot].length;
+            }
+
+            for(int slot : byId)
+            {
+                out.writeInt(ids[order[slot]]);
+                out.writeInt(slot);
+            }
+
+            for(int slot : order)
+                out.write(keys[slot]);
+
+            for(int slot : order)
+                out.write(records[slot]);
+
+            /* Make sure the snapshot is durable before anyone relies on it */
+            out.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    /* Type to store field as (numbers only if their text round-trips) */
+    private static byte type(String field)
+    {
+        if(field == null)
+            return NULL;
+
+        try
+        {
+            if(Integer.toString(Integer.parseInt(field)).equals(field))
+                return INT;
+        }
+        catch (NumberFormatException e)
+        {
+            /* Not an int */
+        }
+
+        try
+        {
+            if(Double.toString(Double.parseDouble(field)).equals(field))
+                return DOUBLE;
+        }
+        catch (NumberFormatException e)
+        {
+            /* Not a double */
+        }
+
+        return TEXT;
+    }
+
+    /* Serialize raw fields into {count, {type, value}...} */
+    private static byte[] record(String[] fields)
+    {
+        int size = 4;
+        byte[] types = new byte[fields.length];
+        byte[][] raw = new byte[fields.length][];
+
+        for(int i = 0; i < fields.length; i++)
+        {
+            types[i] = type(fields[i]);
+
+            if(types[i] == TEXT)
+                raw[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+
+            size += 1 + (types[i] == INT ? 4 : types[i] == DOUBLE ? 8
+                    : types[i] == TEXT ? 4 + raw[i].length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(fields.length);
+
+        for(int i = 0; i < fields.length; i++)
+        {
+            buffer.put(types[i]);
+
+            if(types[i] == INT)
+                buffer.putInt(Integer.parseInt(fields[i]));
+            else if(types[i] == DOUBLE)
+                buffer.putDouble(Double.parseDouble(fields[i]));
+            else if(types[i] == TEXT)
+                buffer.putInt(raw[i].length).put(raw[i]);
+        }
+
+        return buffer.array();
+    }
+
+    /* Unsigned, byte-wise comparison (matches UTF-8 code point order) */
+    private static int compare(byte[] x, byte[] y)
+    {
+        int len = Math.min(x.length, y.length);
+
+        for(int i = 0; i < len; i++)
+        {
+            int diff = (x[i] & 0xFF) - (y[i] & 0xFF);
+
+            if(diff != 0)
+                return diff;
+        }
+
+        return x.length - y.length;
+    }
+
+    /* Compare key against the key stored in the given slot */
+    private int compare(byte[] key, int slot)
+    {
+        int entry = keyTable + slot * KEY_ENTRY;
+        int offset = map.getInt(entry), length = map.getInt(entry + 4);
+        int len = Math.min(key.length, length);
+
+        for(int i = 0; i < len; i++)
+        {
+            int diff = (key[i] & 0xFF) - (map.get(offset + i) & 0xFF);
+
+            if(diff != 0)
+                return diff;
+        }
+
+        return key.length - length;
+    }
+
+    /* Find the key table slot for key, or -1 */
+    private int find(String key)
+    {
+        byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = count - 1;
+
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(raw, mid);
+
+            if(cmp == 0)
+                return mid;
+
+            if(cmp < 0)
+                hi = mid - 1;
+            else
+                lo = mid + 1;
+        }
+
+        return -1;
+    }
+
+    /* Find the key table slot for id, or -1 */
+    private int findId(int id)
+    {
+        int lo = 0, hi = count - 1;
+
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int current = map.getInt(idTable + mid * ID_ENTRY);
+
+            if(current == id)
+                return map.getInt(idTable + mid * ID_ENTRY + 4);
+
+            if(current < id)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+
+        return -1;
+    }
+
+    private static String string(ByteBuffer buffer, int offset, int length)
+    {
+        byte[] raw = new byte[length];
+
+        for(int i = 0; i < length; i++)
+            raw[i] = buffer.get(offset + i);
+
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /* Inverse of record(), reading from buffer at pos */
+    private static String[] fields(ByteBuffer buffer, int pos)
+    {
+        String[] fields = new String[buffer.getInt(pos)];
+        pos += 4;
+
+        for(int i = 0; i < fields.length; i++)
+        {
+            byte type = buffer.get(pos++);
+
+            if(type == INT)
+            {
+                fields[i] = Integer.toString(buffer.getInt(pos));
+                pos += 4;
+            }
+            else if(type == DOUBLE)
+            {
+                fields[i] = Double.toString(buffer.getDouble(pos));
+                pos += 8;
+            }
+            else if(type == TEXT)
+            {
+                int length = buffer.getInt(pos);
+                fields[i] = string(buffer, pos + 4, length);
+                pos += 4 + length;
+            }
+        }
+
+        return fields;
+    }
+
+    private String keyAt(int slot)
+    {
+        int entry = keyTable + slot * KEY_ENTRY;
+        return string(map, map.getInt(entry), map.getInt(entry + 4));
+    }
+
+    /* Decode the record in slot (or reuse a recent decode) */
+    private V load(String key, int slot)
+    {
+        V value;
+
+        /* Access order means even a get moves entries around */
+        synchronized(cache)
+        {
+            value = cache.get(key);
+        }
+
+        if(value == null)
+        {
+            int pos = map.getInt(keyTable + slot * KEY_ENTRY + 8);
+            value = encoder.encode(fields(map, pos));
+
+            synchronized(cache)
+            {
+                cache.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    private void evict(String key)
+    {
+        synchronized(cache)
+        {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Get a value by its numeric id (see write)
+     * @param id - id to search against
+     * @return the value, or null if the id does not exist
+     */
+    public V getById(int id)
+    {
+        int slot = findId(id);
+
+        if(slot == -1)
+            return null;
+
+        return get(keyAt(slot));
+    }
+
+    @Override
+    public boolean put(String key, V value)
+    {
+        if(!admits(key, value))
+            return false;
+
+        /* Only decode the old value if an index needs it */
+        V old = isIndexed() ? get(key) : null;
+
+        removed.remove(key);
+        evict(key);
+        overlay.put(key, value);
+        reindex(key, old, value);
+        changed(key, value);
+
+        return true;
+    }
+
+    @Override
+    public V get(String key)
+    {
+        V value = overlay.get(key);
+
+        if(value != null || removed.contains(key))
+            return value;
+
+        int slot = find(key);
+        return slot == -1 ? null : load(key, slot);
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        if(overlay.contains(key))
+            return true;
+
+        return !removed.contains(key) && find(key) != -1;
+    }
+
+    @Override
+    public boolean remove(String key)
+    {
+        reindex(key, isIndexed() ? get(key) : null, null);
+        boolean result = overlay.remove(key);
+        evict(key);
+
+        if(!removed.contains(key) && find(key) != -1)
+        {
+            removed.add(key);
+            result = true;
+        }
+
+        if(result)
+            changed(key, null);
+
+        return result;
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        Set<String> keys = new HashSet<>(overlay.keySet());
+
+        for(int i = 0; i < count; i++)
+            keys.add(keyAt(i));
+
+        keys.removeAll(removed);
+        return keys;
+    }
+
+    @Override
+    public List<V> values()
+    {
+        List<V> values = new ArrayList<>();
+
+        for(String key : keySet())
+            values.add(get(key));
+
+        return values;
+    }
+
+    @Override
+    public Set<KVPair<String, V>> items()
+    {
+        Set<KVPair<String, V>> items = new HashSet<>();
+
+        for(String key : keySet())
+            items.add(new KVPair<>(key, get(key)));
+
+        return items;
+    }
+}
@@ -0,0 +1,180 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for the tagged binary format written by BinaryWriter
+ *
+ * Typical use is a loop over next(), switching on getField() and
+ * calling skip() for anything unknown. Malformed input raises an
+ * IllegalArgumentException.
+ */
+public final class BinaryReader
+{
+    private final byte[] buffer;
+    private int pos;
+    private final int end;
+
+    private int field, type;
+
+    public BinaryReader(byte[] buffer)
+    {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length)
+    {
+        if(offset < 0 || length < 0 || offset + length > buffer.length)
+            throw new IllegalArgumentException("Bad range");
+
+        this.buffer = buffer;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /* Untagged varint (e.g. a format version) */
+    public long rawVarint()
+    {
+        long value = 0;
+
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            if(pos >= end)
+                throw new IllegalArgumentException("Truncated varint");
+
+            byte b = buffer[pos++];
+            value |= (long)(b & 0x7F) << shift;
+
+            if(b >= 0)
+                return value;
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /* Advance to the next field; false at the end of the record */
+    public boolean next()
+    {
+        if(pos >= end)
+            return false;
+
+        long tag = rawVarint();
+
+        field = (int)(tag >>> 3);
+        type = (int)(tag & 0x7);
+
+        if(field == 0)
+            throw new IllegalArgumentException("Bad tag " + tag);
+
+        return true;
+    }
+
+    /* Field number of the current field */
+    public int getField()
+    {
+        return field;
+    }
+
+    private void expect(int wanted)
+    {
+        if(type != wanted)
+            throw new IllegalArgumentException("Field " + field + " has wire type "
+                    + type + ", expected " + wanted);
+    }
+
+    public long readVarint()
+    {
+        expect(BinaryWriter.VARINT);
+        return rawVarint();
+    }
+
+    public int readInt()
+    {
+        return (int)readVarint();
+    }
+
+    public long readSInt()
+    {
+        long raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public boolean readBool()
+    {
+        return readVarint() != 0;
+    }
+
+    public double readDouble()
+    {
+        expect(BinaryWriter.FIXED64);
+        require(8);
+
+        long bits = 0;
+
+        for(int i = 0; i < 8; i++)
+            bits |= (buffer[pos++] & 0xFFL) << (8 * i);
+
+        return Double.longBitsToDouble(bits);
+    }
+
+    /* Length of the current BYTES payload, checked against the buffer */
+    private int payload()
+    {
+        expect(BinaryWriter.BYTES);
+        long length = rawVarint();
+
+        if(length < 0 || length > end - pos)
+            throw new IllegalArgumentException("Truncated field " + field);
+
+        return (int)length;
+    }
+
+    private void require(int length)
+    {
+        if(end - pos < length)
+            throw new IllegalArgumentException("Truncated field " + field);
+    }
+
+    public String readString()
+    {
+        int length = payload();
+        String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+
+        pos += length;
+        return value;
+    }
+
+    /* Reader over a nested record (shares the buffer) */
+    public BinaryReader readNested()
+    {
+        int length = payload();
+        BinaryReader nested = new BinaryReader(buffer, pos, length);
+
+        pos += length;
+        return nested;
+    }
+
+    /* Skip the current field (e.g. one written by a newer version) */
+    public void skip()
+    {
+        switch(type)
+        {
+            case BinaryWriter.VARINT:
+                rawVarint();
+                break;
+
+            case BinaryWriter.FIXED64:
+                require(8);
+                pos += 8;
+                break;
+
+            case BinaryWriter.BYTES:
+                int length = payload();
+                pos += length;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown wire type " + type);
+        }
+    }
+}
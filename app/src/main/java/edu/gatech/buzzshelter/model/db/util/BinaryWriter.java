@@ -0,0 +1,200 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer for the tagged binary format read by BinaryReader
+ *
+ * Each field is written as a varint tag, (field number << 3) | wire
+ * type, followed by its payload:
+ *   VARINT  - unsigned LEB128 varint (signed values are zigzag'd first)
+ *   FIXED64 - 8 bytes, little endian (doubles)
+ *   BYTES   - varint length, then that many bytes (UTF-8, nested records)
+ * Readers skip tags they do not know, so fields can be added freely; a
+ * field number must never be reused for a different meaning.
+ */
+public final class BinaryWriter
+{
+    public static final int VARINT = 0;
+    public static final int FIXED64 = 1;
+    public static final int BYTES = 2;
+
+    private byte[] buffer;
+    private int length;
+
+    public BinaryWriter()
+    {
+        this(64);
+    }
+
+    public BinaryWriter(int capacity)
+    {
+        buffer = new byte[Math.max(16, capacity)];
+    }
+
+    private void ensure(int extra)
+    {
+        if(length + extra > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+
+    private void tag(int field, int type)
+    {
+        rawVarint(((long)field << 3) | type);
+    }
+
+    /* Untagged varint (e.g. a format version) */
+    public BinaryWriter rawVarint(long value)
+    {
+        ensure(10);
+
+        while((value & ~0x7FL) != 0)
+        {
+            buffer[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[length++] = (byte)value;
+        return this;
+    }
+
+    /* Non-negative integers (negative ones take 10 bytes; use sint) */
+    public BinaryWriter varint(int field, long value)
+    {
+        tag(field, VARINT);
+        return rawVarint(value);
+    }
+
+    /* Signed integers, zigzag encoded so small negatives stay small */
+    public BinaryWriter sint(int field, long value)
+    {
+        tag(field, VARINT);
+        return rawVarint((value << 1) ^ (value >> 63));
+    }
+
+    public BinaryWriter bool(int field, boolean value)
+    {
+        return varint(field, value ? 1 : 0);
+    }
+
+    public BinaryWriter fixed64(int field, double value)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+
+        tag(field, FIXED64);
+        ensure(8);
+
+        for(int i = 0; i < 8; i++)
+            buffer[length++] = (byte)(bits >>> (8 * i));
+
+        return this;
+    }
+
+    /* Length-prefixed UTF-8; null strings are left out entirely */
+    public BinaryWriter string(int field, String value)
+    {
+        if(value == null)
+            return this;
+
+        int size = utf8Length(value);
+
+        tag(field, BYTES);
+        rawVarint(size);
+        ensure(size);
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if(c < 0x80)
+            {
+                buffer[length++] = (byte)c;
+            }
+            else if(c < 0x800)
+            {
+                buffer[length++] = (byte)(0xC0 | (c >> 6));
+                buffer[length++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+
+                buffer[length++] = (byte)(0xF0 | (cp >> 18));
+                buffer[length++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buffer[length++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buffer[length++] = (byte)(0x80 | (cp & 0x3F));
+            }
+            else if(Character.isSurrogate(c))
+            {
+                /* Lone surrogates become '?', as String.getBytes does */
+                buffer[length++] = '?';
+            }
+            else
+            {
+                buffer[length++] = (byte)(0xE0 | (c >> 12));
+                buffer[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+
+        return this;
+    }
+
+    /* Nested record (or any raw bytes) */
+    public BinaryWriter bytes(int field, BinaryWriter nested)
+    {
+        tag(field, BYTES);
+        rawVarint(nested.length);
+        ensure(nested.length);
+
+        System.arraycopy(nested.buffer, 0, buffer, length, nested.length);
+        length += nested.length;
+
+        return this;
+    }
+
+    /* Number of UTF-8 bytes string() will write for value */
+    private static int utf8Length(String value)
+    {
+        int size = 0;
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if(c < 0x80)
+                size += 1;
+            else if(c < 0x800)
+                size += 2;
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                size += 4;
+                i++;
+            }
+            else if(Character.isSurrogate(c))
+                size += 1;
+            else
+                size += 3;
+        }
+
+        return size;
+    }
+
+    /* Start over, keeping the buffer */
+    public void clear()
+    {
+        length = 0;
+    }
+
+    public int size()
+    {
+        return length;
+    }
+
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buffer, length);
+    }
+}
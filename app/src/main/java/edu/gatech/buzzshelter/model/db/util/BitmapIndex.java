@@ -0,0 +1,176 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+
+/**
+ * Inverted index from tokens to bitsets of value ordinals
+ *
+ * Every key gets a small ordinal (reused once the key is removed), and
+ * each token maps to the set of ordinals whose value has it, so a filter
+ * is one lookup and combining filters is a word-wise AND. Register it as
+ * a listener on the database before the data arrives, and it is kept
+ * current on every put and remove. Since it is live rather than
+ * versioned, callers pairing it with a snapshot can use getVersion to
+ * tell whether it changed in the meantime.
+ *
+ * @param <V> value type
+ */
+public final class BitmapIndex<V> implements DatabaseListener<V>
+{
+    private final Function<V, ? extends Collection<?>> tokenizer;
+
+    /* token -> ordinals of the values which have it */
+    private Map<Object, BitSet> postings = new HashMap<>();
+
+    /* key -> ordinal, and per ordinal: key and tokens */
+    private Map<String, Integer> ordinals = new HashMap<>();
+    private List<String> keys = new ArrayList<>();
+    private List<Collection<?>> tokens = new ArrayList<>();
+
+    /* Ordinals in use */
+    private BitSet used = new BitSet();
+
+    /* Bumped on every change */
+    private long version;
+
+    /* tokenizer must return the same (normalized) tokens for equal values */
+    public BitmapIndex(Function<V, ? extends Collection<?>> tokenizer)
+    {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public synchronized void onPut(String key, V value)
+    {
+        version++;
+        Integer ordinal = ordinals.get(key);
+
+        if(ordinal == null)
+        {
+            ordinal = used.nextClearBit(0);
+            ordinals.put(key, ordinal);
+            used.set(ordinal);
+
+            if(ordinal == keys.size())
+            {
+                keys.add(key);
+                tokens.add(Collections.emptyList());
+            }
+            else
+            {
+                keys.set(ordinal, key);
+            }
+        }
+
+        unlink(ordinal);
+
+        Collection<?> current = tokenizer.apply(value);
+        tokens.set(ordinal, current);
+
+        for(Object token : current)
+            postings.computeIfAbsent(token, t -> new BitSet()).set(ordinal);
+    }
+
+    @Override
+    public synchronized void onRemove(String key)
+    {
+        Integer ordinal = ordinals.remove(key);
+
+        if(ordinal == null)
+            return;
+
+        version++;
+        unlink(ordinal);
+
+        tokens.set(ordinal, Collections.emptyList());
+        keys.set(ordinal, null);
+        used.clear(ordinal);
+    }
+
+    /* Clear ordinal from the postings of its old tokens */
+    private void unlink(int ordinal)
+    {
+        for(Object token : tokens.get(ordinal))
+        {
+            BitSet bits = postings.get(token);
+
+            /* Repeated token, already gone */
+            if(bits == null)
+                continue;
+
+            bits.clear(ordinal);
+
+            if(bits.isEmpty())
+                postings.remove(token);
+        }
+    }
+
+    /* Number of changes so far (equal values: nothing changed in between) */
+    public synchronized long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Ordinals of the values which have token
+     * @param token - token to search for
+     * @return a new bitset (free to modify, e.g. with and())
+     */
+    public synchronized BitSet find(Object token)
+    {
+        BitSet bits = postings.get(token);
+        return bits == null ? new BitSet() : (BitSet)bits.clone();
+    }
+
+    /**
+     * Ordinals of the values which have every one of wanted
+     * @param wanted - tokens to search for
+     * @return a new bitset (every ordinal in use, if wanted is empty)
+     */
+    public synchronized BitSet findAll(Object... wanted)
+    {
+        if(wanted.length == 0)
+            return (BitSet)used.clone();
+
+        BitSet[] sets = new BitSet[wanted.length];
+
+        for(int i = 0; i < wanted.length; i++)
+        {
+            sets[i] = postings.get(wanted[i]);
+
+            if(sets[i] == null)
+                return new BitSet();
+        }
+
+        return Toolkit.intersect(sets);
+    }
+
+    /**
+     * Keys of the values under ordinals (removed ones are skipped)
+     * @param bits - ordinals, as returned by find
+     * @return list of keys
+     */
+    public synchronized List<String> keys(BitSet bits)
+    {
+        List<String> result = new ArrayList<>(bits.cardinality());
+
+        for(int i = bits.nextSetBit(0); i >= 0 && i < keys.size(); i = bits.nextSetBit(i + 1))
+        {
+            String key = keys.get(i);
+
+            if(key != null)
+                result.add(key);
+        }
+
+        return result;
+    }
+}
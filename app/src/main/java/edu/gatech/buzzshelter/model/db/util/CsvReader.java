@@ -0,0 +1,113 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import edu.gatech.buzzshelter.model.db.FieldCursor;
+
+/**
+ * Minimal RFC 4180 (Excel-style) CSV reader, which fills a reusable
+ * FieldCursor instead of allocating a record per row. Quoted fields may
+ * contain commas, newlines and doubled ("") quotes. Blank lines are
+ * skipped.
+ */
+public final class CsvReader
+{
+    private final Reader in;
+
+    private final char[] buffer = new char[8192];
+    private int pos, limit;
+
+    public CsvReader(Reader in)
+    {
+        this.in = in;
+    }
+
+    /* Next char, or -1 at the end of input */
+    private int read() throws IOException
+    {
+        if(pos == limit)
+        {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+
+            if(limit <= 0)
+            {
+                limit = 0;
+                return -1;
+            }
+        }
+
+        return buffer[pos++];
+    }
+
+    /* Look at the next char without consuming it */
+    private int peek() throws IOException
+    {
+        int c = read();
+
+        if(c != -1)
+            pos--;
+
+        return c;
+    }
+
+    /**
+     * Read the next record into fields
+     * @param fields - cursor to fill (cleared first)
+     * @return false, once the input is exhausted
+     */
+    public boolean next(FieldCursor fields) throws IOException
+    {
+        fields.clear();
+
+        int c;
+        boolean quoted = false, empty = true;
+
+        while((c = read()) != -1)
+        {
+            if(quoted)
+            {
+                if(c != '"')
+                    fields.append((char)c);
+                else if(peek() == '"')
+                    fields.append((char)read());
+                else
+                    quoted = false;
+
+                continue;
+            }
+
+            if(c == '"')
+            {
+                quoted = true;
+                empty = false;
+            }
+            else if(c == ',')
+            {
+                fields.endField();
+                empty = false;
+            }
+            else if(c == '\n')
+            {
+                /* Skip blank lines */
+                if(empty)
+                    continue;
+
+                fields.endField();
+                return true;
+            }
+            else if(c != '\r')
+            {
+                fields.append((char)c);
+                empty = false;
+            }
+        }
+
+        if(empty)
+            return false;
+
+        fields.endField();
+        return true;
+    }
+}
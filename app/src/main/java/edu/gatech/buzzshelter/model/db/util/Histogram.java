@@ -0,0 +1,106 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, HDR-style histogram of non-negative long values
+ *
+ * Values are bucketed by power of two, with 16 linear sub-buckets per
+ * power, so any recorded value is reported within ~6% of its true value.
+ */
+public final class Histogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(),
+            max = new AtomicLong();
+
+    private static int index(long value)
+    {
+        /* Small values are recorded exactly */
+        if(value < 2 * SUB_COUNT)
+            return (int)value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int)(value >>> shift);
+    }
+
+    /* Highest value which falls in bucket i */
+    private static long upper(int i)
+    {
+        if(i < 2 * SUB_COUNT)
+            return i;
+
+        int shift = i / SUB_COUNT - 1;
+        long base = (long)(i % SUB_COUNT + SUB_COUNT) << shift;
+
+        return base + (1L << shift) - 1;
+    }
+
+    public void record(long value)
+    {
+        value = Math.max(0, value);
+
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value))
+            ;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * Get the value at the given percentile
+     * @param percentile - 0 to 100
+     * @return (upper bound of) the value, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long n = count.get();
+
+        if(n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n)), seen = 0;
+
+        for(int i = 0; i < counts.length(); i++)
+        {
+            seen += counts.get(i);
+
+            if(seen >= rank)
+                return Math.min(upper(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -1,10 +1,12 @@
 package edu.gatech.buzzshelter.model.db.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public final class Toolkit
 {
@@ -12,8 +14,27 @@ public final class Toolkit
     @SafeVarargs
     public static <T> Set<T> union(Set<T>... sets)
     {
-        return Arrays.stream(sets).flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+        if(sets.length == 0)
+            return new HashSet<>();
+
+        /* Start from the largest, so it's copied (not rehashed item by item) */
+        Set<T> largest = sets[0];
+
+        for(Set<T> set : sets)
+        {
+            if(set.size() > largest.size())
+                largest = set;
+        }
+
+        Set<T> result = new HashSet<>(largest);
+
+        for(Set<T> set : sets)
+        {
+            if(set != largest)
+                result.addAll(set);
+        }
+
+        return result;
     }
 
     /* Perform an intersection of all the sets */
@@ -27,12 +48,65 @@ public final class Toolkit
         if(sets.length == 1)
             return sets[0];
 
+        /* Smallest first: it bounds the result, and rejects items soonest */
+        List<Set<T>> sorted = new ArrayList<>(sets.length);
+
+        for(Set<T> set : sets)
+            sorted.add(set);
+
+        sorted.sort(Comparator.comparingInt(Set::size));
+
+        Set<T> result = new HashSet<>();
+        Set<T> smallest = sorted.get(0);
+
+        if(smallest.isEmpty())
+            return result;
+
         /* Only add an item if *all* the sets contain it */
-        return sets[0].stream()
-                .filter(item -> Arrays.stream(sets)
-                        .skip(1)
-                        .map(set -> set.contains(item))
-                        .reduce((x, y) -> x && y).orElse(false))
-                .collect(Collectors.toSet());
+        outer:
+        for(T item : smallest)
+        {
+            for(int i = 1; i < sorted.size(); i++)
+            {
+                if(!sorted.get(i).contains(item))
+                    continue outer;
+            }
+
+            result.add(item);
+        }
+
+        return result;
+    }
+
+    /* Perform a union of all the bitsets (into a new one) */
+    public static BitSet union(BitSet... sets)
+    {
+        BitSet result = new BitSet();
+
+        for(BitSet set : sets)
+            result.or(set);
+
+        return result;
+    }
+
+    /*
+     * Perform an intersection of all the bitsets (into a new one). A word-
+     * wise AND, shortest first (length() is O(1), unlike cardinality()),
+     * stopping as soon as the result is empty
+     */
+    public static BitSet intersect(BitSet... sets)
+    {
+        if(sets.length == 0)
+            return new BitSet();
+
+        BitSet[] sorted = sets.clone();
+        Arrays.sort(sorted, Comparator.comparingInt(BitSet::length));
+
+        BitSet result = (BitSet)sorted[0].clone();
+
+        for(int i = 1; i < sorted.length && !result.isEmpty(); i++)
+            result.and(sorted[i]);
+
+        return result;
     }
 }
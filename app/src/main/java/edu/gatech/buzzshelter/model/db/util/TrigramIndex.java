@@ -0,0 +1,348 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
+
+/**
+ * Full-text index from character trigrams to values, ranked and typo-tolerant
+ *
+ * Text is split into words (letters and digits, case-folded), and each
+ * word padded with a space either side is cut into trigrams, so "midtown"
+ * gives " mi", "mid", ..., "wn ". A query matches a value when at least
+ * MIN_SCORE of its trigrams appear in the value's text; a typo only spoils
+ * the two or three trigrams around it, so "midtwn" still finds "Midtown".
+ * Register it as a listener on the database, like BitmapIndex, and it is
+ * kept current on every put and remove. A put which leaves the trigrams
+ * as they were costs one tokenization; otherwise each trigram added or
+ * dropped is O(1), whatever the length of its postings.
+ *
+ * Searches share a read lock, so a slow one only holds up updates (which
+ * take the write lock) rather than other searches; text is tokenized
+ * before either lock is taken.
+ *
+ * @param <V> value type
+ */
+public final class TrigramIndex<V> implements DatabaseListener<V>
+{
+    /* Fraction of the query's trigrams a match must share */
+    public static final double MIN_SCORE = 0.5;
+
+    private static final String[] NONE = new String[0];
+    private static final int[] NO_POSITIONS = new int[0];
+
+    /*
+     * Unordered list of ordinals (add appends, remove swaps in the last).
+     * slots[i] is this trigram's index in the grams of ordinals[i], so the
+     * entry moved by a remove can have its position updated in O(1)
+     */
+    private static final class Postings
+    {
+        int[] ordinals = new int[4];
+        int[] slots = new int[4];
+        int size;
+
+        /* Returns the position of the new entry */
+        int add(int ordinal, int slot)
+        {
+            if(size == ordinals.length)
+            {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+
+            ordinals[size] = ordinal;
+            slots[size] = slot;
+
+            return size++;
+        }
+    }
+
+    /* Per-ordinal counters for one search (only touched entries are cleared afterwards) */
+    private static final class Scratch
+    {
+        final int[] shared, touched;
+
+        Scratch(int size)
+        {
+            shared = new int[size];
+            touched = new int[size];
+        }
+    }
+
+    private final Function<V, String> text;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /* trigram -> ordinals of the values whose text has it */
+    private Map<String, Postings> postings = new HashMap<>();
+
+    /*
+     * key -> ordinal, and per ordinal: key, (distinct) trigrams, and where
+     * in each trigram's postings the ordinal is
+     */
+    private Map<String, Integer> ordinals = new HashMap<>();
+    private List<String> keys = new ArrayList<>();
+    private List<String[]> grams = new ArrayList<>();
+    private List<int[]> positions = new ArrayList<>();
+
+    /* Scratch kept between searches; concurrent searches allocate their own */
+    private final AtomicReference<Scratch> spare = new AtomicReference<>();
+
+    /* Ordinals freed by removes, for reuse */
+    private List<Integer> free = new ArrayList<>();
+
+    /* text returns the searchable text of a value (may be null) */
+    public TrigramIndex(Function<V, String> text)
+    {
+        this.text = text;
+    }
+
+    /* Distinct trigrams of every word in s */
+    private static String[] trigrams(String s)
+    {
+        if(s == null)
+            return NONE;
+
+        Set<String> result = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder(" ");
+
+        for(int i = 0; i <= s.length(); i++)
+        {
+            char c = i < s.length() ? s.charAt(i) : ' ';
+
+            if(Character.isLetterOrDigit(c))
+            {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+
+            /* End of a word (if any) */
+            if(word.length() > 1)
+            {
+                word.append(' ');
+
+                for(int j = 0; j + 3 <= word.length(); j++)
+                    result.add(word.substring(j, j + 3));
+
+                word.setLength(1);
+            }
+        }
+
+        return result.toArray(NONE);
+    }
+
+    @Override
+    public void onPut(String key, V value)
+    {
+        String[] current = trigrams(text.apply(value));
+
+        lock.writeLock().lock();
+
+        try
+        {
+            link(key, current);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Point key at current, relinking only if its trigrams changed */
+    private void link(String key, String[] current)
+    {
+        Integer ordinal = ordinals.get(key);
+
+        if(ordinal == null)
+        {
+            if(free.isEmpty())
+            {
+                ordinal = keys.size();
+                keys.add(key);
+                grams.add(NONE);
+                positions.add(NO_POSITIONS);
+            }
+            else
+            {
+                ordinal = free.remove(free.size() - 1);
+                keys.set(ordinal, key);
+            }
+
+            ordinals.put(key, ordinal);
+        }
+        else if(Arrays.equals(current, grams.get(ordinal)))
+        {
+            /* Same text (or at least the same trigrams): nothing to relink */
+            return;
+        }
+
+        unlink(ordinal);
+
+        int[] at = new int[current.length];
+
+        for(int i = 0; i < current.length; i++)
+            at[i] = postings.computeIfAbsent(current[i], g -> new Postings()).add(ordinal, i);
+
+        grams.set(ordinal, current);
+        positions.set(ordinal, at);
+    }
+
+    @Override
+    public void onRemove(String key)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            Integer ordinal = ordinals.remove(key);
+
+            if(ordinal == null)
+                return;
+
+            unlink(ordinal);
+
+            grams.set(ordinal, NONE);
+            positions.set(ordinal, NO_POSITIONS);
+            keys.set(ordinal, null);
+            free.add(ordinal);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Remove ordinal from the postings of its old trigrams, O(1) each */
+    private void unlink(int ordinal)
+    {
+        String[] old = grams.get(ordinal);
+        int[] at = positions.get(ordinal);
+
+        for(int i = 0; i < old.length; i++)
+        {
+            Postings list = postings.get(old[i]);
+            int last = --list.size;
+
+            if(last == 0)
+            {
+                postings.remove(old[i]);
+                continue;
+            }
+
+            /* Swap the last entry into the hole, and tell it where it went */
+            int moved = list.ordinals[last], slot = list.slots[last];
+
+            list.ordinals[at[i]] = moved;
+            list.slots[at[i]] = slot;
+            positions.get(moved)[slot] = at[i];
+        }
+    }
+
+    /**
+     * Keys of the values best matching query
+     * @param query - words to search for (any case, typos allowed)
+     * @param limit - maximum number of keys to return
+     * @return list of keys, best match first
+     */
+    public List<String> search(String query, int limit)
+    {
+        String[] wanted = trigrams(query);
+
+        if(wanted.length == 0 || limit <= 0)
+            return Collections.emptyList();
+
+        lock.readLock().lock();
+
+        try
+        {
+            return rank(wanted, limit);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Best `limit` keys sharing enough of wanted; needs the read lock */
+    private List<String> rank(String[] wanted, int limit)
+    {
+        /* Shared trigrams per ordinal, and the ordinals which have any */
+        Scratch scratch = spare.getAndSet(null);
+
+        if(scratch == null || scratch.shared.length < keys.size())
+            scratch = new Scratch(keys.size());
+
+        int[] shared = scratch.shared, touched = scratch.touched;
+        int count = 0;
+
+        for(String gram : wanted)
+        {
+            Postings list = postings.get(gram);
+
+            if(list == null)
+                continue;
+
+            for(int i = 0; i < list.size; i++)
+            {
+                int ordinal = list.ordinals[i];
+
+                if(shared[ordinal]++ == 0)
+                    touched[count++] = ordinal;
+            }
+        }
+
+        int needed = (int)Math.ceil(wanted.length * MIN_SCORE);
+
+        /* Most shared trigrams first; then the shorter (more focused) text */
+        Comparator<Integer> better = (x, y) -> shared[x] != shared[y]
+                ? Integer.compare(shared[y], shared[x])
+                : Integer.compare(grams.get(x).length, grams.get(y).length);
+
+        /* The best `limit` so far, worst on top */
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, Math.min(limit, count)),
+                better.reversed());
+
+        for(int i = 0; i < count; i++)
+        {
+            int ordinal = touched[i];
+
+            if(shared[ordinal] < needed)
+                continue;
+
+            if(best.size() < limit)
+                best.add(ordinal);
+            else if(better.compare(ordinal, best.peek()) < 0)
+            {
+                best.poll();
+                best.add(ordinal);
+            }
+        }
+
+        String[] result = new String[best.size()];
+
+        for(int i = result.length - 1; i >= 0; i--)
+            result[i] = keys.get(best.poll());
+
+        /* Leave the scratch zeroed for the next search */
+        for(int i = 0; i < count; i++)
+            shared[touched[i]] = 0;
+
+        spare.set(scratch);
+
+        return Arrays.asList(result);
+    }
+}
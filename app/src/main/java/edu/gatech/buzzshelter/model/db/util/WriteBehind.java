@@ -0,0 +1,138 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer which coalesces writes per key
+ *
+ * Pending writes are kept per key (a later write supersedes an earlier
+ * one, and a null value is a removal) and handed to the sink as a single
+ * batch, once `batch` keys are pending or every `window` ms, whichever
+ * comes first. Writers block once `capacity` keys are pending.
+ */
+public final class WriteBehind
+{
+    private final int batch, capacity;
+    private final Consumer<Map<String, Object>> sink;
+
+    /* Pending writes (guarded by this) */
+    private Map<String, Object> pending = new LinkedHashMap<>();
+
+    /* Daemon, so a buffer nobody closed doesn't keep the process alive */
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "WriteBehind flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /* Keeps batches reaching the sink in order */
+    private final Object sendLock = new Object();
+
+    /* Statistics (guarded by this) */
+    private long writes, flushed, sent, flushes;
+    private int batched;
+
+    public WriteBehind(Consumer<Map<String, Object>> sink, int batch, long window,
+                       int capacity)
+    {
+        this.sink = sink;
+        this.batch = batch;
+        this.capacity = Math.max(batch, capacity);
+
+        flusher.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a write of (key, value)
+     * @param key - key to write
+     * @param value - value to write, or null to remove key
+     */
+    public synchronized void add(String key, Object value)
+    {
+        /* Bounded backpressure (a superseding write never waits) */
+        while(pending.size() >= capacity && !pending.containsKey(key))
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        /* Re-insert, so flushes follow the latest write order */
+        pending.remove(key);
+        pending.put(key, value);
+
+        writes++;
+        batched++;
+
+        if(pending.size() == batch)
+            flusher.execute(this::flush);
+    }
+
+    /* Send everything which is pending, as one batch */
+    public void flush()
+    {
+        synchronized(sendLock)
+        {
+            Map<String, Object> current;
+
+            synchronized(this)
+            {
+                if(pending.isEmpty())
+                    return;
+
+                current = pending;
+                pending = new LinkedHashMap<>();
+
+                flushed += batched;
+                sent += current.size();
+                flushes++;
+                batched = 0;
+
+                notifyAll();
+            }
+
+            sink.accept(current);
+        }
+    }
+
+    /* Flush what remains, and stop the timer */
+    public void close()
+    {
+        flusher.shutdown();
+        flush();
+    }
+
+    /* Statistics */
+    public synchronized long getWrites()
+    {
+        return writes;
+    }
+
+    public synchronized long getSent()
+    {
+        return sent;
+    }
+
+    public synchronized long getFlushes()
+    {
+        return flushes;
+    }
+
+    /* Writes accepted per remote write sent (1.0 means no coalescing) */
+    public synchronized double getCoalescingRatio()
+    {
+        return sent == 0 ? 1.0 : (double)flushed / sent;
+    }
+}
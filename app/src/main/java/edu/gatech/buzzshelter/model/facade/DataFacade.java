@@ -2,11 +2,15 @@ package edu.gatech.buzzshelter.model.facade;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import edu.gatech.buzzshelter.model.control.NameSearch;
 import edu.gatech.buzzshelter.model.control.ReservationMgr;
 import edu.gatech.buzzshelter.model.control.ShelterMgr;
+import edu.gatech.buzzshelter.model.control.ShelterQuery;
 import edu.gatech.buzzshelter.model.data.Reservation;
 import edu.gatech.buzzshelter.model.data.Shelter;
+import edu.gatech.buzzshelter.model.db.DatabaseListener;
 
 public class DataFacade
 {
@@ -33,6 +37,11 @@ public class DataFacade
         return sMgr.get(name);
     }
 
+    public Shelter getShelter(int key)
+    {
+        return sMgr.get(key);
+    }
+
     public boolean canReserve()
     {
         return rMgr.canReserve();
@@ -43,25 +52,54 @@ public class DataFacade
         return rMgr.get();
     }
 
-    public boolean reserve(String name, String type, int amt)
+    /**
+     * Reserve amt beds of type at the named shelter. The shelter's count
+     * is updated in a server transaction, and the reservation is only
+     * recorded once that has committed.
+     * @return future completing with whether the reservation was made
+     *         (possibly on a background thread)
+     */
+    public CompletableFuture<Boolean> reserve(String name, String type, int amt)
     {
         /* Already reserved */
         if (rMgr.get() != null)
-            return false;
+            return CompletableFuture.completedFuture(false);
 
         /* Make the reservation */
-        return sMgr.reserve(name, type, amt)
-                && rMgr.put(name, type, amt);
+        return sMgr.reserve(name, type, amt).thenApply(reserved -> {
+            if(!reserved)
+                return false;
+
+            /* Couldn't record it: give the beds back */
+            if(!rMgr.put(name, type, amt))
+            {
+                sMgr.cancel(name, type, amt);
+                return false;
+            }
+
+            return true;
+        });
     }
 
-    public boolean cancel(String name, String type, int amt)
+    /**
+     * Cancel the reservation of amt beds of type at the named shelter. As
+     * with reserve, the record is only removed once the shelter has taken
+     * the beds back on the server.
+     * @return future completing with whether the reservation was cancelled
+     *         (possibly on a background thread)
+     */
+    public CompletableFuture<Boolean> cancel(String name, String type, int amt)
     {
         /* Nothing to cancel */
         if(rMgr.get() == null)
-            return false;
+            return CompletableFuture.completedFuture(false);
 
-        rMgr.cancel();
-        return sMgr.cancel(name, type, amt);
+        return sMgr.cancel(name, type, amt).thenApply(cancelled -> {
+            if(cancelled)
+                rMgr.cancel();
+
+            return cancelled;
+        });
     }
 
     public Set<Shelter> matchName(String name)
@@ -79,8 +117,43 @@ public class DataFacade
         return sMgr.matchAge(age);
     }
 
+    /* Ranked, typo-tolerant search of shelter names, addresses and notes */
+    public List<Shelter> search(String text, int limit)
+    {
+        return sMgr.search(text, limit);
+    }
+
+    /* Shelters matching every criterion, in one pass over one snapshot (see ShelterMgr) */
+    public List<Shelter> find(ShelterQuery query)
+    {
+        return sMgr.find(query);
+    }
+
     public List<Shelter> getShelters()
     {
         return sMgr.getShelters();
     }
+
+    /* Incremental name search, narrowed as the user types (close it when done) */
+    public NameSearch newNameSearch()
+    {
+        return sMgr.newNameSearch();
+    }
+
+    /* Completes once the shelters have loaded (call setup() first) */
+    public CompletableFuture<Void> whenLoaded()
+    {
+        return sMgr.whenLoaded();
+    }
+
+    /* Get notified as shelters are added, changed or removed */
+    public void addShelterListener(DatabaseListener<Shelter> listener)
+    {
+        sMgr.addListener(listener);
+    }
+
+    public void removeShelterListener(DatabaseListener<Shelter> listener)
+    {
+        sMgr.removeListener(listener);
+    }
 }
@@ -0,0 +1,203 @@
+package edu.gatech.buzzshelter.model.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.gatech.buzzshelter.model.db.BinaryCodec;
+import edu.gatech.buzzshelter.model.db.util.BinaryWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips and malformed input for the Shelter and Reservation codecs
+ */
+public class BinaryCodecTest
+{
+    private static Shelter shelter()
+    {
+        List<Shelter.Capacity> capacity = new ArrayList<>();
+        capacity.add(new Shelter.Capacity("Beds", 40));
+        capacity.add(new Shelter.Capacity("Family Rooms", 6));
+
+        return new Shelter(7, "My Sister's House", capacity, "Women/Children",
+                -84.4107, 33.7802, "921 Howell Mill Rd NW, Atlanta, GA 30318",
+                "Temporary, Emergency, Residential Recovery \u2013 Caf\u00e9", "(404) 367-2465");
+    }
+
+    private static void assertShelterEquals(Shelter expected, Shelter actual)
+    {
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getRestrict(), actual.getRestrict());
+        assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getNotes(), actual.getNotes());
+        assertEquals(expected.getPhone(), actual.getPhone());
+
+        assertEquals(expected.getCapacity().size(), actual.getCapacity().size());
+
+        for(int i = 0; i < expected.getCapacity().size(); i++)
+        {
+            Shelter.Capacity want = expected.getCapacity().get(i);
+            Shelter.Capacity got = actual.getCapacity().get(i);
+
+            assertEquals(want.getCategory(), got.getCategory());
+            assertEquals(want.getCapacity(), got.getCapacity());
+            assertEquals(want.getAvailable(), got.getAvailable());
+        }
+    }
+
+    private static void assertReservationEquals(Reservation expected, Reservation actual)
+    {
+        assertEquals(expected.getShelter(), actual.getShelter());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getAmt(), actual.getAmt());
+    }
+
+    /* raw, followed by one field of every wire type under unused field numbers */
+    private static byte[] withUnknownFields(byte[] raw)
+    {
+        BinaryWriter nested = new BinaryWriter().string(1, "ignored");
+        BinaryWriter extra = new BinaryWriter()
+                .varint(100, 12345)
+                .sint(101, -3)
+                .fixed64(102, Math.PI)
+                .string(103, "from a newer version")
+                .bytes(104, nested);
+
+        byte[] tail = extra.toByteArray();
+        byte[] result = Arrays.copyOf(raw, raw.length + tail.length);
+        System.arraycopy(tail, 0, result, raw.length, tail.length);
+
+        return result;
+    }
+
+    @Test
+    public void shelterRoundTrip()
+    {
+        Shelter shelter = shelter();
+        BinaryCodec<Shelter> codec = Shelter.getCodec();
+
+        assertShelterEquals(shelter, codec.fromBytes(codec.toBytes(shelter)));
+    }
+
+    @Test
+    public void shelterRoundTripKeepsAvailable()
+    {
+        Shelter shelter = shelter();
+        BinaryCodec<Shelter> codec = Shelter.getCodec();
+
+        assertTrue(shelter.reserve("Beds", 3));
+        assertTrue(shelter.reserve("Family Rooms", 6));
+
+        Shelter copy = codec.fromBytes(codec.toBytes(shelter));
+
+        assertShelterEquals(shelter, copy);
+        assertEquals(37, copy.getCapacity().get(0).getAvailable());
+        assertEquals(0, copy.getCapacity().get(1).getAvailable());
+    }
+
+    @Test
+    public void shelterRoundTripWithNulls()
+    {
+        Shelter shelter = new Shelter();
+        BinaryCodec<Shelter> codec = Shelter.getCodec();
+
+        Shelter copy = codec.fromBytes(codec.toBytes(shelter));
+
+        assertShelterEquals(shelter, copy);
+        assertNull(copy.getName());
+    }
+
+    @Test
+    public void reservationRoundTrip()
+    {
+        Reservation reservation = new Reservation("My Sister's House", "Beds", -2);
+        BinaryCodec<Reservation> codec = Reservation.getCodec();
+
+        assertReservationEquals(reservation, codec.fromBytes(codec.toBytes(reservation)));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped()
+    {
+        Shelter shelter = shelter();
+        Reservation reservation = new Reservation("My Sister's House", "Beds", 2);
+
+        byte[] shelterBytes = withUnknownFields(Shelter.getCodec().toBytes(shelter));
+        byte[] reservationBytes = withUnknownFields(Reservation.getCodec().toBytes(reservation));
+
+        assertShelterEquals(shelter, Shelter.getCodec().fromBytes(shelterBytes));
+        assertReservationEquals(reservation, Reservation.getCodec().fromBytes(reservationBytes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedBufferIsRejected()
+    {
+        byte[] raw = Shelter.getCodec().toBytes(shelter());
+
+        /* Cuts into the last capacity record */
+        Shelter.getCodec().fromBytes(Arrays.copyOf(raw, raw.length - 1));
+    }
+
+    @Test
+    public void everyTruncationFailsCleanly()
+    {
+        byte[] raw = Shelter.getCodec().toBytes(shelter());
+
+        /* Cutting at a field boundary is a valid (shorter) record; anywhere else must throw IAE */
+        for(int length = 0; length < raw.length; length++)
+        {
+            try
+            {
+                Shelter.getCodec().fromBytes(Arrays.copyOf(raw, length));
+            }
+            catch(IllegalArgumentException e)
+            {
+                /* Expected */
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownWireTypeIsRejected()
+    {
+        byte[] raw = new BinaryWriter()
+                .rawVarint(1)
+                .string(1, "A")
+                .rawVarint((20 << 3) | 7)
+                .toByteArray();
+
+        /* Field 20 has wire type 7, which is undefined (so it can't be skipped) */
+        Reservation.getCodec().fromBytes(raw);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedLengthIsRejected()
+    {
+        byte[] raw = new BinaryWriter()
+                .rawVarint(1)
+                .string(1, "My Sister's House")
+                .toByteArray();
+
+        /* Claim the name is longer than the buffer: byte 2 is its length */
+        raw[2] = 0x7F;
+
+        Reservation.getCodec().fromBytes(raw);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newerVersionIsRejected()
+    {
+        byte[] raw = new BinaryWriter()
+                .rawVarint(Reservation.getCodec().getVersion() + 1)
+                .string(1, "My Sister's House")
+                .toByteArray();
+
+        Reservation.getCodec().fromBytes(raw);
+    }
+}
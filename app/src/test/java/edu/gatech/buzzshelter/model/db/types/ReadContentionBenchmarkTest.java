@@ -0,0 +1,198 @@
+package edu.gatech.buzzshelter.model.db.types;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import edu.gatech.buzzshelter.model.db.Database;
+import edu.gatech.buzzshelter.model.db.util.Histogram;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contention benchmark for FirebaseDB's read path: readers against one
+ * writer whose every put is followed by a (simulated) remote write.
+ *
+ * "global lock" is the old design, where reads and writes share one lock
+ * and the remote write happens under it; "lock-free" is the current one
+ * (reads go straight to a ConcurrentMemDB, and the remote write happens
+ * outside of any lock readers take).
+ *
+ * Timings depend on the machine (and on a single core, readers mostly
+ * take turns with the writer), so they are only printed; what is checked
+ * is that reads complete while a remote write is in flight.
+ *
+ * Ignored in the unit suite (it runs for a few seconds and its check
+ * depends on scheduling); remove the annotation to run it by hand.
+ */
+public class ReadContentionBenchmarkTest
+{
+    private static final int KEYS = 1000;
+    private static final long DURATION_MS = 200;
+
+    /* Roughly a fast setValue() round trip into the Firebase client */
+    private static final long REMOTE_NS = 50_000;
+
+    /* Remote writes started and finished so far */
+    private static final AtomicLong started = new AtomicLong(), finished = new AtomicLong();
+
+    private static final class Result
+    {
+        final Histogram latency = new Histogram();
+        final LongAdder duringRemote = new LongAdder();
+    }
+
+    private static String key(int i)
+    {
+        return "shelter" + i;
+    }
+
+    /* Read latencies (ns) over DURATION_MS, with `readers` threads and one writer */
+    private static Result measure(int readers, Function<String, Integer> read,
+                                  Consumer<String> write) throws InterruptedException
+    {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Result result = new Result();
+
+        Thread[] threads = new Thread[readers + 1];
+
+        for(int t = 0; t < readers; t++)
+        {
+            int seed = t;
+
+            threads[t] = new Thread(() -> {
+                int i = seed;
+
+                while(running.get())
+                {
+                    long writing = started.get(), done = finished.get();
+                    long start = System.nanoTime();
+
+                    read.apply(key(i++ % KEYS));
+                    result.latency.record(System.nanoTime() - start);
+
+                    /* Started and finished within the same remote write */
+                    if(writing > done && finished.get() < writing)
+                        result.duringRemote.increment();
+                }
+            });
+        }
+
+        threads[readers] = new Thread(() -> {
+            int i = 0;
+
+            while(running.get())
+                write.accept(key(i++ % KEYS));
+        });
+
+        for(Thread thread : threads)
+            thread.start();
+
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+
+        for(Thread thread : threads)
+            thread.join();
+
+        return result;
+    }
+
+    /* Stand-in for the setValue() call */
+    private static void remote()
+    {
+        started.incrementAndGet();
+        LockSupport.parkNanos(REMOTE_NS);
+        finished.incrementAndGet();
+    }
+
+    private static Database<Integer> fill(Database<Integer> db)
+    {
+        for(int i = 0; i < KEYS; i++)
+            db.put(key(i), i);
+
+        return db;
+    }
+
+    private static Result globalLock(int readers) throws InterruptedException
+    {
+        Database<Integer> mem = fill(new MemDB<>());
+        Lock lock = new ReentrantLock();
+
+        return measure(readers, key -> {
+            lock.lock();
+
+            try
+            {
+                return mem.get(key);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }, key -> {
+            lock.lock();
+
+            try
+            {
+                mem.put(key, mem.get(key) + 1);
+                remote();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        });
+    }
+
+    private static Result lockFree(int readers) throws InterruptedException
+    {
+        Database<Integer> mem = fill(new ConcurrentMemDB<>());
+        Lock lock = new ReentrantLock(), remote = new ReentrantLock();
+
+        /* Same hand-over as FirebaseDB.put */
+        return measure(readers, mem::get, key -> {
+            lock.lock();
+            mem.put(key, mem.get(key) + 1);
+
+            remote.lock();
+            lock.unlock();
+
+            remote();
+            remote.unlock();
+        });
+    }
+
+    @Test
+    @Ignore("Benchmark; run by hand")
+    public void readsDontWaitOnRemoteWrites() throws Exception
+    {
+        System.out.printf("%-8s %36s %36s%n", "", "global lock", "lock-free");
+        System.out.printf("%-8s %12s %11s %11s %12s %11s %11s%n", "readers",
+                "reads/s", "p99 ns", "in remote", "reads/s", "p99 ns", "in remote");
+
+        for(int readers : new int[] {1, 2, 4, 8})
+        {
+            Result before = globalLock(readers);
+            Result after = lockFree(readers);
+
+            System.out.printf("%-8d %12d %11d %11d %12d %11d %11d%n", readers,
+                    before.latency.getCount() * 1000 / DURATION_MS,
+                    before.latency.getPercentile(99), before.duringRemote.sum(),
+                    after.latency.getCount() * 1000 / DURATION_MS,
+                    after.latency.getPercentile(99), after.duringRemote.sum());
+
+            /* Behind the global lock, every read waits out the remote write */
+            assertEquals(0, before.duringRemote.sum());
+            assertTrue("no reads completed during a remote write at " + readers,
+                    after.duringRemote.sum() > 0);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Timing benchmark for Toolkit's set algebra against the stream-based
+ * version it replaced, from 10^3 to 10^6 elements.
+ *
+ * Each size intersects and unions three sets of n, n/2 and n/10 random
+ * ints from [0, 2n), as a query combining filters of different
+ * selectivity would. The BitSet overloads run over the same values as
+ * ordinals. Timings are only printed (they depend on the machine); what
+ * is checked is that every version gives the same result.
+ *
+ * Ignored in the unit suite (it takes a while and only prints); remove the
+ * annotation to run it by hand.
+ */
+public class ToolkitBenchmarkTest
+{
+    private static final int RUNS = 3;
+
+    /*
+     * The implementations before the rewrite, taking a List rather than
+     * varargs (so the generic array never escapes into a stream)
+     */
+    private static <T> Set<T> oldUnion(List<Set<T>> sets)
+    {
+        return sets.stream().flatMap(Collection::stream)
+                .collect(Collectors.toSet());
+    }
+
+    private static <T> Set<T> oldIntersect(List<Set<T>> sets)
+    {
+        if(sets.isEmpty())
+            return new HashSet<>();
+
+        if(sets.size() == 1)
+            return sets.get(0);
+
+        return sets.get(0).stream()
+                .filter(item -> sets.stream()
+                        .skip(1)
+                        .map(set -> set.contains(item))
+                        .reduce((x, y) -> x && y).orElse(false))
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<Integer> randomSet(Random random, int size, int bound)
+    {
+        Set<Integer> set = new HashSet<>();
+
+        while(set.size() < size)
+            set.add(random.nextInt(bound));
+
+        return set;
+    }
+
+    private static BitSet bits(Set<Integer> set)
+    {
+        BitSet bits = new BitSet();
+
+        for(int i : set)
+            bits.set(i);
+
+        return bits;
+    }
+
+    /* Best of RUNS (after one warm-up run), in microseconds */
+    private static <R> long time(Supplier<R> op)
+    {
+        op.get();
+        long best = Long.MAX_VALUE;
+
+        for(int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            op.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best / 1000;
+    }
+
+    @Test
+    @Ignore("Benchmark; run by hand")
+    public void compareWithStreams()
+    {
+        Random random = new Random(42);
+
+        System.out.printf("%-8s %13s %13s %13s %13s %13s %13s%n", "n",
+                "intersect old", "new", "BitSet", "union old", "new", "BitSet");
+
+        for(int n = 1000; n <= 1000000; n *= 10)
+        {
+            /* Largest first: the worst order for the old intersect */
+            Set<Integer> a = randomSet(random, n, 2 * n);
+            Set<Integer> b = randomSet(random, n / 2, 2 * n);
+            Set<Integer> c = randomSet(random, n / 10, 2 * n);
+
+            BitSet x = bits(a), y = bits(b), z = bits(c);
+
+            Set<Integer> expected = oldIntersect(Arrays.asList(a, b, c));
+            assertEquals(expected, Toolkit.intersect(a, b, c));
+            assertEquals(bits(expected), Toolkit.intersect(x, y, z));
+
+            Set<Integer> all = oldUnion(Arrays.asList(a, b, c));
+            assertEquals(all, Toolkit.union(a, b, c));
+            assertEquals(bits(all), Toolkit.union(x, y, z));
+
+            System.out.printf("%-8d %13d %13d %13d %13d %13d %13d%n", n,
+                    time(() -> oldIntersect(Arrays.asList(a, b, c))),
+                    time(() -> Toolkit.intersect(a, b, c)),
+                    time(() -> Toolkit.intersect(x, y, z)),
+                    time(() -> oldUnion(Arrays.asList(a, b, c))),
+                    time(() -> Toolkit.union(a, b, c)),
+                    time(() -> Toolkit.union(x, y, z)));
+        }
+    }
+}
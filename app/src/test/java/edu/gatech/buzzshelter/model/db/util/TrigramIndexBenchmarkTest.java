@@ -0,0 +1,73 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Timing benchmark for TrigramIndex updates and searches at 100k values.
+ * Timings are only printed (they depend on the machine).
+ *
+ * Ignored in the unit suite; remove the annotation to run it by hand.
+ */
+public class TrigramIndexBenchmarkTest
+{
+    /* Mean time per call (ns) of op over runs calls */
+    private static long time(int runs, Runnable op)
+    {
+        long start = System.nanoTime();
+
+        for(int i = 0; i < runs; i++)
+            op.run();
+
+        return (System.nanoTime() - start) / runs;
+    }
+
+    @Test
+    @Ignore("Benchmark; run by hand")
+    public void costsAt100k()
+    {
+        Random random = new Random(11);
+        Map<String, String> values = new HashMap<>();
+
+        for(int i = 0; i < 100000; i++)
+            values.put("k" + i, TrigramIndexTest.text(random));
+
+        TrigramIndex<String> index = new TrigramIndex<>(Function.identity());
+        values.forEach(index::onPut);
+
+        long unchanged = time(1000, () -> {
+            String key = "k" + random.nextInt(100000);
+            index.onPut(key, values.get(key));
+        });
+
+        long changed = time(1000, () -> {
+            String key = "k" + random.nextInt(100000);
+            String value = TrigramIndexTest.text(random);
+
+            values.put(key, value);
+            index.onPut(key, value);
+        });
+
+        long removed = time(1000, () -> {
+            String key = "k" + random.nextInt(100000);
+            index.onRemove(key);
+            index.onPut(key, values.get(key));
+        });
+
+        index.search("vetrans", 10);
+        long search = time(20, () -> index.search("vetrans", 10));
+
+        System.out.printf("100k values: no-op put %d ns, changed put %d ns, "
+                + "remove + put %d ns, search(\"vetrans\") %d us%n",
+                unchanged, changed, removed, search / 1000);
+
+        assertEquals(10, index.search("vetrans", 10).size());
+    }
+}
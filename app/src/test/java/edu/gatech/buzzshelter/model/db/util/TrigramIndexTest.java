@@ -0,0 +1,140 @@
+package edu.gatech.buzzshelter.model.db.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Correctness of TrigramIndex under updates, removes and concurrent searches
+ * (TrigramIndexBenchmarkTest has its costs)
+ */
+public class TrigramIndexTest
+{
+    private static final String[] WORDS = {"veterans", "women", "children", "family",
+            "shelter", "house", "midtown", "atlanta", "recovery", "emergency",
+            "mission", "haven", "hope", "street", "avenue", "center", "youth", "men"};
+
+    private static final String[] QUERIES = {"vetrans", "midtwn", "family shelter",
+            "hope haven", "emergncy center", "youth"};
+
+    /* Two to five random words and a number */
+    static String text(Random random)
+    {
+        StringBuilder text = new StringBuilder();
+
+        for(int i = 0, n = 2 + random.nextInt(4); i < n; i++)
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+        return text.append(random.nextInt(1000)).toString();
+    }
+
+    private static TrigramIndex<String> index(Map<String, String> values)
+    {
+        TrigramIndex<String> index = new TrigramIndex<>(Function.identity());
+        values.forEach(index::onPut);
+
+        return index;
+    }
+
+    @Test
+    public void findsTypos()
+    {
+        Map<String, String> values = new HashMap<>();
+        values.put("a", "Veterans Recovery Center");
+        values.put("b", "Midtown Family Shelter");
+        values.put("c", "Women's Haven");
+
+        TrigramIndex<String> index = index(values);
+
+        assertEquals("a", index.search("vetrans", 10).get(0));
+        assertEquals("b", index.search("midtwn", 10).get(0));
+        assertTrue(index.search("zzzz", 10).isEmpty());
+    }
+
+    @Test
+    public void updatesMatchARebuild()
+    {
+        Random random = new Random(7);
+        Map<String, String> values = new HashMap<>();
+        TrigramIndex<String> index = new TrigramIndex<>(Function.identity());
+
+        /* Puts (new and changed), no-op puts and removes, reusing ordinals */
+        for(int i = 0; i < 20000; i++)
+        {
+            String key = "k" + random.nextInt(2000);
+            int op = random.nextInt(10);
+
+            if(op < 2)
+            {
+                values.remove(key);
+                index.onRemove(key);
+            }
+            else if(op < 4 && values.containsKey(key))
+            {
+                index.onPut(key, values.get(key));
+            }
+            else
+            {
+                String value = text(random);
+
+                values.put(key, value);
+                index.onPut(key, value);
+            }
+
+            /* Searches in between reuse the scratch arrays */
+            if(i % 1000 == 0)
+                index.search(QUERIES[i / 1000 % QUERIES.length], 5);
+        }
+
+        TrigramIndex<String> rebuilt = index(values);
+
+        for(String query : QUERIES)
+        {
+            List<String> got = index.search(query, Integer.MAX_VALUE);
+            List<String> want = rebuilt.search(query, Integer.MAX_VALUE);
+
+            assertEquals(query, new HashSet<>(want), new HashSet<>(got));
+            assertEquals(query, want.size(), got.size());
+        }
+    }
+
+    @Test
+    public void searchesDuringUpdates() throws InterruptedException
+    {
+        Random random = new Random(3);
+        Map<String, String> values = new HashMap<>();
+
+        for(int i = 0; i < 2000; i++)
+            values.put("k" + i, text(random));
+
+        TrigramIndex<String> index = index(values);
+        Map<String, String> updates = new HashMap<>();
+
+        for(int i = 0; i < 2000; i++)
+            updates.put("k" + random.nextInt(2000), text(random));
+
+        Thread writer = new Thread(() -> updates.forEach(index::onPut));
+        writer.start();
+
+        /* Each search gets its own scratch, so results stay well formed */
+        while(writer.isAlive())
+        {
+            List<String> found = index.search("family shelter", 20);
+            assertEquals(found.size(), new HashSet<>(found).size());
+        }
+
+        writer.join();
+        values.putAll(updates);
+
+        List<String> want = index(values).search("family shelter", Integer.MAX_VALUE);
+        assertEquals(new HashSet<>(want),
+                new HashSet<>(index.search("family shelter", Integer.MAX_VALUE)));
+    }
+}